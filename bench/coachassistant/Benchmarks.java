@@ -0,0 +1,431 @@
+/*
+ This file is part of Coach Assistant
+ Copyright (C) 2004-2006 Sina Iravanian  <sina_iravanian@yahoo.com>
+
+ This program is free software; you can redistribute it and/or modify
+ it under the terms of the GNU General Public License as published by
+ the Free Software Foundation; version 2 of the License.
+
+ This program is distributed in the hope that it will be useful,
+ but WITHOUT ANY WARRANTY; without even the implied warranty of
+ MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ GNU General Public License for more details.
+
+ You should have received a copy of the GNU General Public License
+ along with this program; if not, write to the Free Software
+ Foundation, Inc., 675 Mass Ave, Cambridge, MA 02139, USA.
+ */
+
+package coachassistant;
+
+import java.io.File;
+import java.io.FileReader;
+import java.io.IOException;
+import java.io.Reader;
+import java.io.StringReader;
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.lang.reflect.Method;
+import java.util.ArrayList;
+import java.util.Random;
+
+/**
+ * Benchmarks of the core data paths: parsing, saving and exporting strategies,
+ * compiling formations, looking up positions, and transforming coordinates.
+ * <p>
+ * Every benchmark is run with synthetic strategies of several numbers of
+ * partitions. After some warm-up iterations, each measured iteration runs the
+ * operation repeatedly for a fixed time; the mean time per operation and its
+ * standard deviation over the iterations are reported, together with the
+ * bytes allocated per operation when the JVM can tell them. Only the
+ * allocations of the benchmark thread are counted, not the ones of the
+ * threads an operation may start.
+ * <p>
+ * Usage:
+ *
+ * <pre>
+ * javac -d out src/coachassistant/*.java bench/coachassistant/*.java
+ * java -cp out coachassistant.Benchmarks [options] [benchmarks...]
+ * </pre>
+ */
+public class Benchmarks
+{
+    /**
+     * Number of the points used by the lookup benchmarks in each operation
+     */
+    private static final int       Points      = 1024;
+
+    /**
+     * Keeps the results of the operations, so they are not optimized away
+     */
+    private static volatile Object sink;
+
+    /*
+     * The settings of the run
+     */
+    private int[]                  partitions  = { 100, 1000, 8000 };
+    private int                    warmups     = 3;
+    private int                    iterations  = 5;
+    private long                   iterationMs = 500;
+
+    /**
+     * Reads the bytes allocated by a thread, or null if the JVM does not
+     * support it
+     */
+    private Method                 allocatedBytes;
+    private ThreadMXBean           threadBean  = ManagementFactory
+                                                       .getThreadMXBean();
+
+    /*
+     * The strategy the benchmarks run on, and its .cas and .casb files
+     */
+    private StrategyData           strategyData;
+    private File                   casFile;
+    private File                   casbFile;
+    private String                 casText;
+    private CompiledFormation      formation;
+    private double[]               xs, ys;
+    private Rect4d[]               rects;
+    private File                   tempFile;
+
+    /**
+     * An operation to be measured
+     */
+    private abstract class Benchmark
+    {
+        String name;
+
+        /**
+         * The number of the operations done in each call of <code>run</code>
+         */
+        int    ops;
+
+        Benchmark(String name, int ops)
+        {
+            this.name = name;
+            this.ops = ops;
+        }
+
+        abstract Object run() throws Exception;
+    }
+
+    private ArrayList<Benchmark>   listBenchmarks = new ArrayList<Benchmark>();
+
+    public Benchmarks()
+    {
+        listBenchmarks.add(new Benchmark("parse", 1)
+        {
+            Object run() throws IOException
+            {
+                StrategyData sd = new StrategyData();
+                return new CASParser(sd, new StringReader(casText)).parse();
+            }
+        });
+        listBenchmarks.add(new Benchmark("read", 1)
+        {
+            Object run() throws IOException
+            {
+                StrategyData sd = new StrategyData();
+                sd.readFromFile(casFile.getPath());
+                return sd;
+            }
+        });
+        listBenchmarks.add(new Benchmark("readBinary", 1)
+        {
+            Object run() throws IOException
+            {
+                StrategyData sd = new StrategyData();
+                sd.readFromFile(casbFile.getPath());
+                return sd;
+            }
+        });
+        listBenchmarks.add(new Benchmark("save", 1)
+        {
+            Object run() throws IOException
+            {
+                strategyData.saveToFile(tempFile.getPath());
+                return tempFile;
+            }
+        });
+        listBenchmarks.add(new Benchmark("clang", 1)
+        {
+            Object run() throws IOException
+            {
+                new CLangGenerator(strategyData, tempFile.getPath())
+                        .generateCLang();
+                return tempFile;
+            }
+        });
+        listBenchmarks.add(new Benchmark("compile", 1)
+        {
+            Object run()
+            {
+                return new CompiledFormation(strategyData);
+            }
+        });
+        listBenchmarks.add(new Benchmark("lookup", Points)
+        {
+            double[] out = new double[22];
+
+            Object run()
+            {
+                int n = 0;
+                for (int i = 0; i < Points; ++i)
+                    n += formation.evaluate(xs[i], ys[i], out);
+                return Integer.valueOf(n);
+            }
+        });
+        listBenchmarks.add(new Benchmark("lookupBatch", Points)
+        {
+            double[] outXs = new double[11 * Points];
+            double[] outYs = new double[11 * Points];
+
+            Object run()
+            {
+                formation.evaluate(xs, ys, Points, outXs, outYs);
+                return outXs;
+            }
+        });
+        listBenchmarks.add(new Benchmark("transform", Points)
+        {
+            Object run()
+            {
+                double d = 0.0;
+                for (int i = 0; i < Points; ++i)
+                    d += Util.FieldRect(Util.GlobalRect(rects[i])).x1;
+                return Double.valueOf(d);
+            }
+        });
+
+        try
+        {
+            allocatedBytes = Class.forName("com.sun.management.ThreadMXBean")
+                    .getMethod("getThreadAllocatedBytes", long.class);
+            allocatedBytes.invoke(threadBean, Long.valueOf(Thread
+                    .currentThread().getId()));
+        }
+        catch (Exception ex)
+        {
+            allocatedBytes = null;
+        }
+    }
+
+    /**
+     * returns the bytes allocated by the current thread so far, or -1
+     */
+    private long getAllocatedBytes()
+    {
+        if (allocatedBytes == null)
+            return -1;
+        try
+        {
+            return ((Long) allocatedBytes.invoke(threadBean, Long
+                    .valueOf(Thread.currentThread().getId()))).longValue();
+        }
+        catch (Exception ex)
+        {
+            return -1;
+        }
+    }
+
+    /**
+     * Creates a random strategy of a given number of partitions, and the
+     * inputs of the benchmarks.
+     */
+    private void setUp(int parts) throws IOException
+    {
+        Random rnd = new Random(parts);
+
+        // the partitions cover the field about twice
+        StrategyGenerator gen = new StrategyGenerator();
+        gen.setSeed(parts);
+        gen.setPartitions(parts);
+        gen.setOverlap(0.2);
+
+        casFile = File.createTempFile("bench", ".cas");
+        casFile.deleteOnExit();
+        gen.write(casFile.getPath());
+        casText = readAll(casFile);
+
+        strategyData = new StrategyData();
+        strategyData.readFromFile(casFile.getPath());
+
+        casbFile = File.createTempFile("bench", "." + Params.BinaryFilesExt);
+        casbFile.deleteOnExit();
+        strategyData.saveToFile(casbFile.getPath());
+
+        tempFile = File.createTempFile("bench", ".out");
+        tempFile.deleteOnExit();
+
+        formation = new CompiledFormation(strategyData);
+        xs = new double[Points];
+        ys = new double[Points];
+        rects = new Rect4d[Points];
+        for (int i = 0; i < Points; ++i)
+        {
+            xs[i] = (rnd.nextDouble() * 2 - 1) * Params.dFieldWidth;
+            ys[i] = (rnd.nextDouble() * 2 - 1) * Params.dFieldHeight;
+            rects[i] = new Rect4d(xs[i], ys[i], xs[i] + 5, ys[i] + 5);
+        }
+    }
+
+    private static String readAll(File file) throws IOException
+    {
+        StringBuilder sb = new StringBuilder((int) file.length());
+        Reader reader = new FileReader(file);
+        try
+        {
+            char[] buf = new char[1 << 16];
+            int n;
+            while ((n = reader.read(buf)) > 0)
+                sb.append(buf, 0, n);
+        }
+        finally
+        {
+            reader.close();
+        }
+        return sb.toString();
+    }
+
+    /**
+     * Runs a benchmark for the given time.
+     *
+     * @return the number of the calls, the time taken in nanoseconds, and the
+     *         bytes allocated (or -1)
+     */
+    private long[] iterate(Benchmark b, long ms) throws Exception
+    {
+        long calls = 0;
+        long alloc = getAllocatedBytes();
+        long start = System.nanoTime();
+        long end = start + ms * 1000000L;
+        long now;
+        do
+        {
+            sink = b.run();
+            ++calls;
+            now = System.nanoTime();
+        }
+        while (now < end);
+
+        long allocEnd = getAllocatedBytes();
+        return new long[] { calls, now - start,
+                alloc < 0 || allocEnd < 0 ? -1 : allocEnd - alloc };
+    }
+
+    private void run(Benchmark b, int parts) throws Exception
+    {
+        for (int i = 0; i < warmups; ++i)
+            iterate(b, iterationMs);
+
+        double[] times = new double[iterations];
+        long calls = 0, alloc = 0;
+        for (int i = 0; i < iterations; ++i)
+        {
+            long[] r = iterate(b, iterationMs);
+            times[i] = (double) r[1] / r[0] / b.ops / 1000.0;
+            calls += r[0];
+            alloc = r[2] < 0 || alloc < 0 ? -1 : alloc + r[2];
+        }
+
+        double mean = 0.0;
+        for (int i = 0; i < times.length; ++i)
+            mean += times[i];
+        mean /= times.length;
+        double var = 0.0;
+        for (int i = 0; i < times.length; ++i)
+            var += (times[i] - mean) * (times[i] - mean);
+        double sd = times.length > 1 ? Math.sqrt(var / (times.length - 1))
+                : 0.0;
+
+        String allocStr = alloc < 0 ? "n/a" : String.format("%.1f",
+                (double) alloc / calls / b.ops);
+        System.out.println(String.format("%-14s %10d %14.3f %10.3f %14s",
+                b.name, parts, mean, sd, allocStr));
+    }
+
+    public void runAll(ArrayList<String> names) throws Exception
+    {
+        System.out.println(String.format("%-14s %10s %14s %10s %14s",
+                "benchmark", "partitions", "us/op", "stddev", "alloc B/op"));
+
+        for (int i = 0; i < partitions.length; ++i)
+        {
+            setUp(partitions[i]);
+            for (int j = 0; j < listBenchmarks.size(); ++j)
+            {
+                Benchmark b = listBenchmarks.get(j);
+                if (names.size() == 0 || names.contains(b.name))
+                    run(b, partitions[i]);
+            }
+            casFile.delete();
+            casbFile.delete();
+            tempFile.delete();
+        }
+    }
+
+    public static void main(String[] args) throws Exception
+    {
+        Benchmarks bench = new Benchmarks();
+        ArrayList<String> names = new ArrayList<String>();
+        boolean ok = true;
+
+        try
+        {
+            for (int i = 0; i < args.length; ++i)
+            {
+                String arg = args[i];
+                if (arg.equals("-partitions"))
+                {
+                    String[] parts = args[++i].split(",");
+                    bench.partitions = new int[parts.length];
+                    for (int j = 0; j < parts.length; ++j)
+                        bench.partitions[j] = Integer.parseInt(parts[j]);
+                }
+                else if (arg.equals("-warmup"))
+                    bench.warmups = Integer.parseInt(args[++i]);
+                else if (arg.equals("-iterations"))
+                    bench.iterations = Integer.parseInt(args[++i]);
+                else if (arg.equals("-time"))
+                    bench.iterationMs = Long.parseLong(args[++i]);
+                else if (arg.startsWith("-"))
+                    ok = false;
+                else
+                    names.add(arg);
+            }
+        }
+        catch (RuntimeException ex)
+        {
+            ok = false;
+        }
+
+        for (int i = 0; i < names.size(); ++i)
+        {
+            boolean found = false;
+            for (int j = 0; j < bench.listBenchmarks.size(); ++j)
+                found |= bench.listBenchmarks.get(j).name.equals(names.get(i));
+            ok &= found;
+        }
+
+        if (!ok || bench.iterations <= 0 || bench.iterationMs <= 0)
+        {
+            System.err.println("Usage: Benchmarks [options] [benchmarks...]");
+            System.err.print("  benchmarks:");
+            for (int j = 0; j < bench.listBenchmarks.size(); ++j)
+                System.err.print(" " + bench.listBenchmarks.get(j).name);
+            System.err.println();
+            System.err.println("Options:");
+            System.err.println("  -partitions <n,n,...>  numbers of the "
+                    + "partitions (default: 100,1000,8000)");
+            System.err.println("  -warmup <n>            warm-up iterations "
+                    + "(default: 3)");
+            System.err.println("  -iterations <n>        measured iterations "
+                    + "(default: 5)");
+            System.err.println("  -time <ms>             length of each "
+                    + "iteration (default: 500)");
+            System.exit(2);
+        }
+
+        bench.runAll(names);
+    }
+}
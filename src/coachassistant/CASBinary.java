@@ -0,0 +1,590 @@
+/*
+ This file is part of Coach Assistant
+ Copyright (C) 2004-2006 Sina Iravanian  <sina_iravanian@yahoo.com>
+
+ This program is free software; you can redistribute it and/or modify
+ it under the terms of the GNU General Public License as published by
+ the Free Software Foundation; version 2 of the License.
+
+ This program is distributed in the hope that it will be useful,
+ but WITHOUT ANY WARRANTY; without even the implied warranty of
+ MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ GNU General Public License for more details.
+
+ You should have received a copy of the GNU General Public License
+ along with this program; if not, write to the Free Software
+ Foundation, Inc., 675 Mass Ave, Cambridge, MA 02139, USA.
+ */
+
+package coachassistant;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+
+/**
+ * Reads and writes strategies in the binary .casb format, which holds the same
+ * data as a .cas file but is loaded without any parsing.
+ * <p>
+ * All the numbers are little-endian. The file is made of:
+ *
+ * <pre>
+ * magic       the 4 bytes &quot;CASB&quot;
+ * version     int
+ * names       int count, then for each name an int length and its UTF-8 bytes
+ * regions     int count, then for each region an int name index and x1, y1,
+ *             x2, y2 as doubles in the global coordination
+ * partitions  int count, then for each partition in their order an int name
+ *             index and its int priority
+ * players     for each of the 11 players, int count, then for each partition
+ *             an int name index and c1, c2, o1, o2 as doubles
+ * </pre>
+ *
+ * Every name is stored once, and referred to by its index. The doubles are the
+ * very values held by <code>StrategyData</code>, so a strategy read from a
+ * .casb file is bit for bit the one written to it. Since .cas files are
+ * written with <code>Util.FieldRectForFile</code>, converting a .cas file to
+ * .casb and back gives the numbers of the original file as well. Files of
+ * version 1 held the rectangles in the field coordination, and files of
+ * versions 1 and 2 had no priorities; both are still read.
+ * <p>
+ * Files are read through a memory mapping of a window of the file, moved
+ * along as the reading goes, so files larger than the address space of a
+ * single mapping are read as well.
+ */
+public class CASBinary
+{
+    /**
+     * The current version of the format
+     */
+    public static final int     Version     = 3;
+
+    private static final byte[] Magic       = { 'C', 'A', 'S', 'B' };
+
+    /**
+     * The size of the mapped window of the file being read
+     */
+    private static final int    WindowSize  = 1 << 28;
+
+    /**
+     * The longest name accepted, in bytes; longer ones mean a corrupt file
+     */
+    private static final int    MaxNameSize = 1 << 16;
+
+    /**
+     * The size of the buffer of the file being written
+     */
+    private static final int    BufferSize  = 1 << 20;
+
+    private CASBinary()
+    {
+    }
+
+    /**
+     * returns true if the name of a file has the extension of the binary
+     * format
+     */
+    public static boolean isBinaryFile(String fileName)
+    {
+        return fileName.toLowerCase().endsWith("." + Params.BinaryFilesExt);
+    }
+
+    /**
+     * Adds the contents of a .casb file to a strategy. As with the .cas
+     * files, partitions which are not regions, and coefficients of anything
+     * but partitions, are ignored.
+     *
+     * @param channel
+     *            the channel of the file, which is not closed
+     * @param fileName
+     *            the name of the file, for the messages
+     * @throws IOException
+     *             if the file cannot be read, or is not a valid .casb file
+     */
+    public static void read(StrategyData sd, FileChannel channel,
+            String fileName) throws IOException
+    {
+        try
+        {
+            Input input = new Input(channel);
+
+            byte[] bytes = new byte[Magic.length];
+            input.ensure(Magic.length);
+            input.buf.get(bytes);
+            for (int i = 0; i < Magic.length; ++i)
+                if (bytes[i] != Magic[i])
+                    throw new IOException(fileName + " is not a .casb file");
+            int version = input.readInt();
+            if (version < 1 || version > Version)
+                throw new IOException(fileName + ": unsupported version "
+                        + version);
+
+            int count = input.readCount(4);
+            String[] names = new String[count];
+            for (int i = 0; i < count; ++i)
+            {
+                int size = input.readInt();
+                if (size < 0 || size > MaxNameSize)
+                    throw new IOException(fileName + " is corrupt");
+                if (size > bytes.length)
+                    bytes = new byte[Math.max(size, 2 * bytes.length)];
+                input.ensure(size);
+                input.buf.get(bytes, 0, size);
+                names[i] = new String(bytes, 0, size, "UTF-8");
+            }
+
+            count = input.readCount(36);
+            for (int i = 0; i < count; ++i)
+            {
+                String name = names[input.readName(names.length)];
+                input.ensure(32);
+                ByteBuffer b = input.buf;
+                Rect4d rc = new Rect4d(b.getDouble(), b.getDouble(), b
+                        .getDouble(), b.getDouble());
+                sd.addRegion(name, version == 1 ? Util.GlobalRect(rc) : rc);
+            }
+
+            // which of the names are partitions, and their ids in the store of
+            // the coefficients once they have some, so that each name is
+            // looked up only once
+            boolean[] partitions = new boolean[names.length];
+            int[] ids = new int[names.length];
+            count = input.readCount(version >= 3 ? 8 : 4);
+            for (int i = 0; i < count; ++i)
+            {
+                int index = input.readName(names.length);
+                int priority = version >= 3 ? input.readInt() : 0;
+                if (sd.regionExists(names[index]))
+                {
+                    sd.addRegToPartition(names[index], priority);
+                    partitions[index] = true;
+                    ids[index] = -1;
+                }
+            }
+
+            CoefsStore store = sd.getCoefsStore();
+
+            for (int p = 0; p < 11; ++p)
+            {
+                count = input.readCount(36);
+                for (int i = 0; i < count; ++i)
+                {
+                    int index = input.readName(names.length);
+                    input.ensure(32);
+                    ByteBuffer b = input.buf;
+                    Coefs4d cs = new Coefs4d(b.getDouble(), b.getDouble(), b
+                            .getDouble(), b.getDouble());
+                    if (!partitions[index])
+                        continue;
+                    if (ids[index] < 0)
+                        ids[index] = store.intern(names[index]);
+                    sd.setCoefForPlayer(p, ids[index], cs);
+                }
+            }
+        }
+        catch (CorruptException ex)
+        {
+            throw new IOException(fileName + " is corrupt");
+        }
+    }
+
+    /**
+     * Writes a strategy to a .casb file, in the same order as
+     * <code>StrategyData.saveToFile</code> writes a .cas file.
+     */
+    public static void write(StrategyData sd, String fileName)
+            throws IOException
+    {
+        // the names, each stored once
+        HashMap<String, Integer> mapNames = new HashMap<String, Integer>();
+        ArrayList<String> listNames = new ArrayList<String>();
+        int regions = 0, partitions = 0;
+        Iterator<String> it = sd.getRegionNamesIterator();
+        while (it.hasNext())
+        {
+            intern(it.next(), mapNames, listNames);
+            ++regions;
+        }
+        it = sd.getPartitionNamesIterator();
+        while (it.hasNext())
+        {
+            intern(it.next(), mapNames, listNames);
+            ++partitions;
+        }
+        CoefsStore store = sd.getCoefsStore();
+        int nIds = store.getIdCount();
+        int[] ids = new int[nIds];
+        for (int id = 0; id < nIds; ++id)
+            ids[id] = intern(store.getName(id), mapNames, listNames);
+
+        FileOutputStream out = new FileOutputStream(fileName);
+        try
+        {
+            Output output = new Output(out.getChannel());
+
+            output.ensure(Magic.length + 8);
+            output.buf.put(Magic);
+            output.buf.putInt(Version);
+
+            output.putInt(listNames.size());
+            for (int i = 0; i < listNames.size(); ++i)
+            {
+                byte[] bytes = listNames.get(i).getBytes("UTF-8");
+                output.ensure(4 + bytes.length);
+                output.buf.putInt(bytes.length);
+                output.buf.put(bytes);
+            }
+
+            output.putInt(regions);
+            it = sd.getRegionNamesIterator();
+            while (it.hasNext())
+            {
+                String name = it.next();
+                Rect4d rc = sd.getRectForRegion(name);
+                output.ensure(36);
+                output.buf.putInt(mapNames.get(name).intValue());
+                output.buf.putDouble(rc.x1);
+                output.buf.putDouble(rc.y1);
+                output.buf.putDouble(rc.x2);
+                output.buf.putDouble(rc.y2);
+            }
+
+            output.putInt(partitions);
+            it = sd.getPartitionNamesIterator();
+            while (it.hasNext())
+            {
+                String name = it.next();
+                output.ensure(8);
+                output.buf.putInt(mapNames.get(name).intValue());
+                output.buf.putInt(sd.getPartitionPriority(name));
+            }
+
+            Coefs4d cs = new Coefs4d(0, 0, 0, 0);
+            for (int p = 0; p < 11; ++p)
+            {
+                int count = 0;
+                for (int id = 0; id < nIds; ++id)
+                    if (store.exists(p, id))
+                        ++count;
+
+                output.putInt(count);
+                for (int id = 0; id < nIds; ++id)
+                {
+                    if (!store.exists(p, id))
+                        continue;
+
+                    store.get(p, id, cs);
+                    output.ensure(36);
+                    output.buf.putInt(ids[id]);
+                    output.buf.putDouble(cs.c1);
+                    output.buf.putDouble(cs.c2);
+                    output.buf.putDouble(cs.o1);
+                    output.buf.putDouble(cs.o2);
+                }
+            }
+
+            output.flush();
+        }
+        finally
+        {
+            out.close();
+        }
+    }
+
+    private static int intern(String name, HashMap<String, Integer> mapNames,
+            ArrayList<String> listNames)
+    {
+        Integer index = mapNames.get(name);
+        if (index == null)
+        {
+            index = Integer.valueOf(listNames.size());
+            mapNames.put(name, index);
+            listNames.add(name);
+        }
+        return index.intValue();
+    }
+
+    /**
+     * A file being read through a moving memory-mapped window
+     */
+    private static class Input
+    {
+        FileChannel      channel;
+        long             size;
+        long             base;
+        MappedByteBuffer buf;
+
+        Input(FileChannel channel) throws IOException
+        {
+            this.channel = channel;
+            size = channel.size();
+            map(0);
+        }
+
+        private void map(long pos) throws IOException
+        {
+            base = pos;
+            buf = channel.map(FileChannel.MapMode.READ_ONLY, pos, Math.min(
+                    WindowSize, size - pos));
+            buf.order(ByteOrder.LITTLE_ENDIAN);
+        }
+
+        /**
+         * Makes sure the next n bytes are in the window
+         */
+        void ensure(int n) throws IOException
+        {
+            if (buf.remaining() >= n)
+                return;
+
+            long pos = base + buf.position();
+            if (pos + n > size)
+                throw new CorruptException();
+            map(pos);
+        }
+
+        int readInt() throws IOException
+        {
+            ensure(4);
+            return buf.getInt();
+        }
+
+        /**
+         * Reads the number of the records that follow, each taking at least
+         * recordSize bytes, so that a count larger than the rest of the file
+         * can hold is refused before anything is allocated for it
+         */
+        int readCount(int recordSize) throws IOException
+        {
+            int count = readInt();
+            long left = size - base - buf.position();
+            if (count < 0 || count > left / recordSize)
+                throw new CorruptException();
+            return count;
+        }
+
+        int readName(int names) throws IOException
+        {
+            int index = readInt();
+            if (index < 0 || index >= names)
+                throw new CorruptException();
+            return index;
+        }
+    }
+
+    /**
+     * A file being written through a buffer
+     */
+    private static class Output
+    {
+        FileChannel channel;
+        ByteBuffer  buf;
+
+        Output(FileChannel channel)
+        {
+            this.channel = channel;
+            buf = ByteBuffer.allocateDirect(BufferSize);
+            buf.order(ByteOrder.LITTLE_ENDIAN);
+        }
+
+        /**
+         * Makes sure there is room for the next n bytes in the buffer
+         */
+        void ensure(int n) throws IOException
+        {
+            if (buf.remaining() >= n)
+                return;
+
+            flush();
+            if (buf.capacity() < n)
+            {
+                buf = ByteBuffer.allocateDirect(n);
+                buf.order(ByteOrder.LITTLE_ENDIAN);
+            }
+        }
+
+        void putInt(int i) throws IOException
+        {
+            ensure(4);
+            buf.putInt(i);
+        }
+
+        void flush() throws IOException
+        {
+            buf.flip();
+            while (buf.hasRemaining())
+                channel.write(buf);
+            buf.clear();
+        }
+    }
+
+    /**
+     * Thrown when a file ends too early or refers to something missing
+     */
+    private static class CorruptException extends IOException
+    {
+        private static final long serialVersionUID = 1L;
+    }
+
+    /**
+     * returns a description of the first difference between two strategies,
+     * or null if they hold exactly the same numbers, in the same order
+     */
+    static String findDifference(StrategyData sd1, StrategyData sd2)
+    {
+        Iterator<String> it1 = sd1.getRegionNamesIterator();
+        Iterator<String> it2 = sd2.getRegionNamesIterator();
+        while (it1.hasNext() && it2.hasNext())
+        {
+            String name = it1.next();
+            if (!name.equals(it2.next()))
+                return "regions out of order at " + name;
+
+            Rect4d rc1 = sd1.getRectForRegion(name);
+            Rect4d rc2 = sd2.getRectForRegion(name);
+            if (rc1.x1 != rc2.x1 || rc1.y1 != rc2.y1 || rc1.x2 != rc2.x2
+                    || rc1.y2 != rc2.y2)
+                return "region " + name + ": " + rc1 + " became " + rc2;
+        }
+        if (it1.hasNext() || it2.hasNext())
+            return "the number of the regions differs";
+
+        it1 = sd1.getPartitionNamesIterator();
+        it2 = sd2.getPartitionNamesIterator();
+        while (it1.hasNext() && it2.hasNext())
+        {
+            String name = it1.next();
+            if (!name.equals(it2.next()))
+                return "partitions out of order at " + name;
+            if (sd1.getPartitionPriority(name) != sd2
+                    .getPartitionPriority(name))
+                return "the priority of " + name + " differs";
+
+            for (int p = 0; p < 11; ++p)
+            {
+                Coefs4d cs1 = sd1.getPlayerCoefs(p, name);
+                Coefs4d cs2 = sd2.getPlayerCoefs(p, name);
+                if (cs1 == null || cs2 == null)
+                {
+                    if (cs1 != cs2)
+                        return "coefficients of player " + (p + 1) + " in "
+                                + name + " are lost or added";
+                }
+                else if (cs1.c1 != cs2.c1 || cs1.c2 != cs2.c2
+                        || cs1.o1 != cs2.o1 || cs1.o2 != cs2.o2)
+                    return "coefficients of player " + (p + 1) + " in " + name
+                            + ": " + cs1 + " became " + cs2;
+            }
+        }
+        if (it1.hasNext() || it2.hasNext())
+            return "the number of the partitions differs";
+        return null;
+    }
+
+    /**
+     * Converts .cas files to .casb files and back, next to the originals or
+     * into a given directory. With -check, each file written is read back and
+     * compared with the strategy it was written from.
+     */
+    public static void main(String[] args)
+    {
+        ArrayList<File> listFiles = new ArrayList<File>();
+        File outDir = null;
+        boolean check = false;
+        for (int i = 0; i < args.length; ++i)
+        {
+            if (args[i].equals("-out") && i + 1 < args.length)
+                outDir = new File(args[++i]);
+            else if (args[i].equals("-check"))
+                check = true;
+            else if (args[i].startsWith("-"))
+            {
+                listFiles.clear();
+                break;
+            }
+            else
+                Util.addFiles(args[i], new String[] { Params.AppFilesExt,
+                        Params.BinaryFilesExt }, listFiles);
+        }
+
+        if (listFiles.isEmpty())
+        {
+            System.err.println("Usage: CASBinary [-out <dir>] [-check] "
+                    + "files...");
+            System.err.println("  converts .cas files to .casb, and .casb "
+                    + "files to .cas");
+            System.err.println("  -check reads each converted file back and "
+                    + "compares it with the original");
+            System.exit(2);
+        }
+
+        if (outDir != null)
+        {
+            String error = Util.makeOutputDir(outDir);
+            if (error != null)
+            {
+                System.err.println(error);
+                System.exit(1);
+            }
+        }
+
+        ArrayList<File> listOut = new ArrayList<File>();
+        for (int i = 0; i < listFiles.size(); ++i)
+        {
+            File in = listFiles.get(i);
+            boolean binary = isBinaryFile(in.getName());
+            String name = Util.fileNameNoExt(in.getName()) + "."
+                    + (binary ? Params.AppFilesExt : Params.BinaryFilesExt);
+            listOut.add(new File(outDir != null ? outDir : in
+                    .getAbsoluteFile().getParentFile(), name));
+        }
+        String conflict = Util.findOutputConflict(listFiles, listOut);
+        if (conflict != null)
+        {
+            System.err.println(conflict);
+            System.exit(1);
+        }
+
+        boolean ok = true;
+        for (int i = 0; i < listFiles.size(); ++i)
+        {
+            File in = listFiles.get(i);
+            File out = listOut.get(i);
+            try
+            {
+                StrategyData sd = new StrategyData();
+                CASDiagnostics diag = sd.readFromFile(in.getPath());
+                if (!diag.isEmpty())
+                    System.err.println(in + ": " + diag.getSummary(10));
+                sd.saveToFile(out.getPath());
+                System.out.println(in + " -> " + out);
+
+                if (check)
+                {
+                    StrategyData sdOut = new StrategyData();
+                    sdOut.readFromFile(out.getPath());
+                    String diff = findDifference(sd, sdOut);
+                    if (diff != null)
+                    {
+                        System.err.println(out + " differs from " + in
+                                + ": " + diff);
+                        ok = false;
+                    }
+                }
+            }
+            catch (IOException ex)
+            {
+                System.err.println(ex.getMessage());
+                ok = false;
+            }
+        }
+        System.exit(ok ? 0 : 1);
+    }
+}
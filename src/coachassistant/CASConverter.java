@@ -0,0 +1,249 @@
+/*
+ This file is part of Coach Assistant
+ Copyright (C) 2004-2006 Sina Iravanian  <sina_iravanian@yahoo.com>
+
+ This program is free software; you can redistribute it and/or modify
+ it under the terms of the GNU General Public License as published by
+ the Free Software Foundation; version 2 of the License.
+
+ This program is distributed in the hope that it will be useful,
+ but WITHOUT ANY WARRANTY; without even the implied warranty of
+ MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ GNU General Public License for more details.
+
+ You should have received a copy of the GNU General Public License
+ along with this program; if not, write to the Free Software
+ Foundation, Inc., 675 Mass Ave, Cambridge, MA 02139, USA.
+ */
+
+package coachassistant;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * A headless command-line driver that converts .cas files to CLang files.
+ * <p>
+ * The options are the same as the ones in the Export CLang dialog (See
+ * <code>DlgExportCLang</code>), and the files are converted in parallel, on
+ * as many threads as there are processors.
+ * <p>
+ * Usage:
+ *
+ * <pre>
+ * java -cp coachassistant.jar coachassistant.CASConverter [options] files...
+ * </pre>
+ *
+ * Each of the files may be a .cas file, a directory (all of its .cas files are
+ * converted), or a file name pattern containing * and ? wildcards. Run it with
+ * no arguments to see the options.
+ */
+public class CASConverter
+{
+    private String          prefix        = "";
+    private double          posRadius     = -1.0;
+    private double          freedomRadius = -1.0;
+    private boolean         playon        = true;
+    private String          condition     = "";
+    private boolean         shooting      = true;
+    private File            outDir        = null;
+    private int             threads       = Runtime.getRuntime()
+                                                  .availableProcessors();
+
+    /**
+     * The .cas files to be converted
+     */
+    private ArrayList<File> listFiles     = new ArrayList<File>();
+
+    public static void main(String[] args)
+    {
+        System.setProperty("java.awt.headless", "true");
+
+        CASConverter conv = new CASConverter();
+        if (!conv.parseArgs(args))
+        {
+            printUsage();
+            System.exit(2);
+        }
+
+        System.exit(conv.run() ? 0 : 1);
+    }
+
+    private static void printUsage()
+    {
+        System.err.println("Usage: CASConverter [options] files...");
+        System.err.println("  files may be .cas or .casb files, "
+                + "directories, or patterns with * and ?");
+        System.err.println("Options:");
+        System.err.println("  -prefix <name>         rule name prefix");
+        System.err.println("  -posradius <r>         positioning radius");
+        System.err.println("  -freedomradius <r>     freedom radius condition");
+        System.err.println("  -noplayon              do not add the play-on "
+                + "condition");
+        System.err.println("  -condition <cnd>       custom condition");
+        System.err.println("  -noshooting            do not generate shooting "
+                + "rules");
+        System.err.println("  -out <dir>             directory of the .clang "
+                + "files, created if missing (default: next to each .cas "
+                + "file)");
+        System.err.println("  -threads <n>           number of threads");
+    }
+
+    /**
+     * Reads the options and the files from the command-line arguments.
+     *
+     * @return false if the arguments are not valid
+     */
+    private boolean parseArgs(String[] args)
+    {
+        try
+        {
+            for (int i = 0; i < args.length; ++i)
+            {
+                String arg = args[i];
+                if (arg.equals("-prefix"))
+                    prefix = args[++i];
+                else if (arg.equals("-posradius"))
+                    posRadius = Double.parseDouble(args[++i]);
+                else if (arg.equals("-freedomradius"))
+                    freedomRadius = Double.parseDouble(args[++i]);
+                else if (arg.equals("-noplayon"))
+                    playon = false;
+                else if (arg.equals("-condition"))
+                    condition = args[++i];
+                else if (arg.equals("-noshooting"))
+                    shooting = false;
+                else if (arg.equals("-out"))
+                    outDir = new File(args[++i]);
+                else if (arg.equals("-threads"))
+                    threads = Integer.parseInt(args[++i]);
+                else if (arg.startsWith("-"))
+                    return false;
+                else
+                    Util.addFiles(arg, new String[] { Params.AppFilesExt,
+                            Params.BinaryFilesExt }, listFiles);
+            }
+        }
+        catch (ArrayIndexOutOfBoundsException ex)
+        {
+            return false;
+        }
+        catch (NumberFormatException ex)
+        {
+            return false;
+        }
+
+        return threads > 0 && listFiles.size() > 0;
+    }
+
+    /**
+     * Converts all the files.
+     *
+     * @return true if all the files have been converted successfully
+     */
+    private boolean run()
+    {
+        if (outDir != null)
+        {
+            String error = Util.makeOutputDir(outDir);
+            if (error != null)
+            {
+                System.err.println(error);
+                return false;
+            }
+        }
+
+        ArrayList<File> listOut = new ArrayList<File>();
+        for (int i = 0; i < listFiles.size(); ++i)
+            listOut.add(getOutputFile(listFiles.get(i)));
+        String conflict = Util.findOutputConflict(listFiles, listOut);
+        if (conflict != null)
+        {
+            System.err.println(conflict);
+            return false;
+        }
+
+        ExecutorService pool = Executors.newFixedThreadPool(Math.min(threads,
+                listFiles.size()));
+
+        ArrayList<Future<String>> listResults = new ArrayList<Future<String>>();
+        for (int i = 0; i < listFiles.size(); ++i)
+        {
+            final File in = listFiles.get(i);
+            listResults.add(pool.submit(new Callable<String>()
+            {
+                public String call() throws Exception
+                {
+                    return convert(in);
+                }
+            }));
+        }
+
+        boolean ok = true;
+        for (int i = 0; i < listResults.size(); ++i)
+        {
+            try
+            {
+                String msg = listResults.get(i).get();
+                if (msg.length() > 0)
+                    System.err.println(msg);
+            }
+            catch (ExecutionException ex)
+            {
+                ok = false;
+                System.err.println(listFiles.get(i) + ": failed: "
+                        + ex.getCause());
+            }
+            catch (InterruptedException ex)
+            {
+                ok = false;
+                break;
+            }
+        }
+
+        pool.shutdownNow();
+        return ok;
+    }
+
+    /**
+     * Converts a .cas file to a .clang file.
+     *
+     * @return a message about the problems found in the .cas file, or an
+     *         empty string if there was none.
+     */
+    private String convert(File in) throws Exception
+    {
+        StrategyData sd = new StrategyData();
+        CASDiagnostics diag = sd.readFromFile(in.getPath());
+
+        CLangGenerator cg = new CLangGenerator(sd, getOutputFile(in).getPath());
+        cg.ruleNamePrefix = prefix;
+        cg.posRadius = posRadius;
+        cg.freedomRadius = freedomRadius;
+        cg.addPlayon = playon;
+        cg.customCondition = condition;
+        cg.enableShooting = shooting;
+        // the files are already converted in parallel
+        cg.threads = listFiles.size() > 1 ? 1 : threads;
+        cg.generateCLang();
+
+        if (diag.isEmpty())
+            return "";
+        return in + ": " + diag.getSummary(10);
+    }
+
+    /**
+     * returns the .clang file a strategy file is converted to
+     */
+    private File getOutputFile(File in)
+    {
+        String name = Util.fileNameNoExt(in.getName()) + ".clang";
+        return outDir != null ? new File(outDir, name) : new File(in
+                .getParentFile(), name);
+    }
+}
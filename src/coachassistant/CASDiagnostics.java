@@ -0,0 +1,168 @@
+/*
+ This file is part of Coach Assistant
+ Copyright (C) 2004-2006 Sina Iravanian  <sina_iravanian@yahoo.com>
+
+ This program is free software; you can redistribute it and/or modify
+ it under the terms of the GNU General Public License as published by
+ the Free Software Foundation; version 2 of the License.
+
+ This program is distributed in the hope that it will be useful,
+ but WITHOUT ANY WARRANTY; without even the implied warranty of
+ MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ GNU General Public License for more details.
+
+ You should have received a copy of the GNU General Public License
+ along with this program; if not, write to the Free Software
+ Foundation, Inc., 675 Mass Ave, Cambridge, MA 02139, USA.
+ */
+
+package coachassistant;
+
+import java.util.ArrayList;
+
+/**
+ * Collects the problems found while parsing a .cas file.
+ * <p>
+ * The parser never shows anything to the user; it fills an instance of this
+ * class and returns it, so the caller decides how to report the problems
+ * (a single dialog in the GUI, or plain text in batch jobs).
+ */
+public class CASDiagnostics
+{
+    /**
+     * At most this many entries are kept. The rest are only counted.
+     */
+    public static final int MaxEntries = 1000;
+
+    /**
+     * The kinds of problems found in a .cas file
+     */
+    public enum Kind
+    {
+        /**
+         * A [...] line with an unknown header
+         */
+        UnknownHeader,
+        /**
+         * A content line before any header
+         */
+        ContentOutsideSection,
+        /**
+         * A value which is not a number
+         */
+        BadNumber,
+        /**
+         * A region or coefficient line without exactly 4 numbers
+         */
+        WrongValueCount,
+        /**
+         * A line of the journal of the file (See <code>StrategyJournal</code>)
+         * which cannot be replayed
+         */
+        BadJournalLine,
+        /**
+         * A journal which does not match its file any more, and is not
+         * replayed
+         */
+        StaleJournal
+    }
+
+    /**
+     * A single problem found in a line
+     */
+    public static class Entry
+    {
+        public final Kind   kind;
+
+        /**
+         * 1-based line and column of the problem
+         */
+        public final int    line, column;
+
+        /**
+         * The text of the offending line
+         */
+        public final String text;
+
+        public Entry(Kind kind, int line, int column, String text)
+        {
+            this.kind = kind;
+            this.line = line;
+            this.column = column;
+            this.text = text;
+        }
+
+        public String toString()
+        {
+            return "line " + line + ", column " + column + ": " + kind + ": "
+                    + text;
+        }
+    }
+
+    private ArrayList<Entry> listEntries = new ArrayList<Entry>();
+
+    private int              count       = 0;
+
+    public void add(Kind kind, int line, int column, String text)
+    {
+        ++count;
+        if (listEntries.size() < MaxEntries)
+            listEntries.add(new Entry(kind, line, column, text));
+    }
+
+    /**
+     * Adds all the problems of another instance, after the ones of this one
+     */
+    public void addAll(CASDiagnostics diag)
+    {
+        count += diag.count;
+        int n = Math.min(diag.listEntries.size(), MaxEntries
+                - listEntries.size());
+        for (int i = 0; i < n; ++i)
+            listEntries.add(diag.listEntries.get(i));
+    }
+
+    /**
+     * returns true if no problems were found
+     */
+    public boolean isEmpty()
+    {
+        return count == 0;
+    }
+
+    /**
+     * returns the number of the problems found, including the ones not kept
+     */
+    public int getCount()
+    {
+        return count;
+    }
+
+    /**
+     * returns the kept entries, in the order they were found
+     */
+    public ArrayList<Entry> getEntries()
+    {
+        return listEntries;
+    }
+
+    /**
+     * returns a human-readable summary of the problems, listing at most the
+     * given number of them.
+     */
+    public String getSummary(int maxLines)
+    {
+        StringBuilder sb = new StringBuilder();
+        sb.append(count).append(count == 1 ? " problem" : " problems").append(
+                " found:");
+
+        int n = Math.min(maxLines, listEntries.size());
+        for (int i = 0; i < n; ++i)
+            sb.append('\n').append(listEntries.get(i));
+
+        if (count > n)
+            sb.append("\n... and ").append(count - n).append(" more");
+
+        return sb.toString();
+    }
+}
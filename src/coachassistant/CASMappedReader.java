@@ -0,0 +1,388 @@
+/*
+ This file is part of Coach Assistant
+ Copyright (C) 2004-2006 Sina Iravanian  <sina_iravanian@yahoo.com>
+
+ This program is free software; you can redistribute it and/or modify
+ it under the terms of the GNU General Public License as published by
+ the Free Software Foundation; version 2 of the License.
+
+ This program is distributed in the hope that it will be useful,
+ but WITHOUT ANY WARRANTY; without even the implied warranty of
+ MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ GNU General Public License for more details.
+
+ You should have received a copy of the GNU General Public License
+ along with this program; if not, write to the Free Software
+ Foundation, Inc., 675 Mass Ave, Cambridge, MA 02139, USA.
+ */
+
+package coachassistant;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.io.Reader;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * Reads large .cas files by mapping them into memory and parsing pieces of
+ * them in parallel.
+ * <p>
+ * A first pass over the bytes finds the section headers and splits the file
+ * into chunks of whole lines, each within a single section. The chunks are
+ * then parsed concurrently by <code>CASParser</code>s which only record what
+ * they find, and the records are applied to the strategy in the order of the
+ * file. So the checks depending on the rest of the file (a partition must be
+ * a region, coefficients must be of a partition) see exactly what they would
+ * when parsing the file from start to end, and the result, including the
+ * diagnostics, is the same as the one of <code>CASParser</code>.
+ * <p>
+ * Only files of plain ASCII text, and small enough to be mapped at once, are
+ * read this way; <code>read</code> tells the caller to parse the others as
+ * usual.
+ * <p>
+ * The bytes are not scanned in place: each chunk is widened into the
+ * <code>char</code> buffer of its <code>CASScanner</code>, so the parsing
+ * itself is exactly the one of <code>CASParser</code>, at the cost of one
+ * copy of the file. The splitting pass reads every byte once more, on a single
+ * thread. So the time saved is the decoding of the whole file by a
+ * <code>Reader</code>, plus the parsing on the other cores; on a single core
+ * reading this way is about as fast as parsing the file as usual.
+ */
+class CASMappedReader
+{
+    /**
+     * The size of the smallest file worth reading this way
+     */
+    public static final long MinFileSize = 8 << 20;
+
+    /**
+     * The size of the chunks parsed at once, in bytes
+     */
+    private static final int ChunkSize   = 4 << 20;
+
+    private StrategyData     strategyData;
+    private FileChannel      channel;
+    private int              threads;
+    private MappedByteBuffer buf;
+
+    public CASMappedReader(StrategyData sd, FileChannel channel, int threads)
+    {
+        this.strategyData = sd;
+        this.channel = channel;
+        this.threads = Math.max(1, threads);
+    }
+
+    /**
+     * Reads the whole file into the strategy.
+     *
+     * @return the problems found in the file, or null if the file cannot be
+     *         read this way; nothing has been added to the strategy then.
+     */
+    public CASDiagnostics read() throws IOException
+    {
+        long size = channel.size();
+        if (size > Integer.MAX_VALUE)
+            return null;
+
+        buf = channel.map(FileChannel.MapMode.READ_ONLY, 0, size);
+        ArrayList<Chunk> listChunks = split();
+        if (listChunks == null)
+            return null;
+
+        CASDiagnostics diagnostics = new CASDiagnostics();
+        ExecutorService pool = Executors.newFixedThreadPool(threads);
+
+        // at most 2 * threads chunks are parsed ahead of the one applied, so
+        // only as many records are kept at once
+        ArrayList<Future<ChunkParser>> listResults = new ArrayList<Future<ChunkParser>>();
+        int submitted = 0;
+        try
+        {
+            for (int i = 0; i < listChunks.size(); ++i)
+            {
+                while (submitted < listChunks.size()
+                        && submitted < i + 2 * threads)
+                {
+                    final Chunk chunk = listChunks.get(submitted++);
+                    listResults.add(pool.submit(new Callable<ChunkParser>()
+                    {
+                        public ChunkParser call() throws Exception
+                        {
+                            return parse(chunk);
+                        }
+                    }));
+                }
+
+                ChunkParser parser = listResults.get(i).get();
+                listResults.set(i, null);
+                parser.apply();
+                diagnostics.addAll(parser.diagnostics);
+            }
+        }
+        catch (InterruptedException ex)
+        {
+            throw new InterruptedIOException();
+        }
+        catch (ExecutionException ex)
+        {
+            Throwable cause = ex.getCause();
+            if (cause instanceof IOException)
+                throw (IOException) cause;
+            if (cause instanceof RuntimeException)
+                throw (RuntimeException) cause;
+            throw new IOException(cause.toString());
+        }
+        finally
+        {
+            pool.shutdownNow();
+        }
+
+        return diagnostics;
+    }
+
+    /**
+     * Splits the file into chunks of whole lines, starting a new one at each
+     * section header and after every <code>ChunkSize</code> bytes. Lines end
+     * with '\n', '\r' or "\r\n", as in <code>CASScanner</code>.
+     *
+     * @return the chunks, or null if the file is not plain ASCII
+     */
+    private ArrayList<Chunk> split() throws IOException
+    {
+        ArrayList<Chunk> listChunks = new ArrayList<Chunk>();
+        int n = buf.limit();
+        int pos = 0, lineNo = 0;
+
+        // the state of the parser at the current position
+        CASParser.Headers header = null;
+        int player = -1;
+
+        Chunk chunk = new Chunk(0, 1, null, -1);
+        while (pos < n)
+        {
+            int lineStart = pos;
+            while (pos < n)
+            {
+                byte b = buf.get(pos);
+                if (b == '\n' || b == '\r')
+                    break;
+                if (b < 0)
+                    return null;
+                ++pos;
+            }
+            int lineEnd = pos;
+            if (pos < n)
+            {
+                if (buf.get(pos) == '\r' && pos + 1 < n
+                        && buf.get(pos + 1) == '\n')
+                    ++pos;
+                ++pos;
+            }
+            ++lineNo;
+
+            boolean isHeader = isHeader(lineStart, lineEnd);
+            if (lineStart > chunk.start
+                    && (isHeader || lineStart - chunk.start >= ChunkSize))
+            {
+                chunk.end = lineStart;
+                listChunks.add(chunk);
+                chunk = new Chunk(lineStart, lineNo, header, player);
+            }
+
+            if (isHeader)
+            {
+                // the chunk parses the header again, to report its problems
+                // in order
+                CASParser parser = new CASParser(null, new ByteReader(buf,
+                        lineStart, lineEnd));
+                parser.parse();
+                header = parser.currentHeader;
+                player = parser.playerIndex;
+            }
+        }
+
+        chunk.end = n;
+        if (chunk.end > chunk.start)
+            listChunks.add(chunk);
+        return listChunks;
+    }
+
+    /**
+     * returns true if <code>CASParser</code> takes a line as a section
+     * header. As in <code>CASParser.parseLine</code>, tokens which do not
+     * start with a letter, a digit, or '_' are skipped.
+     */
+    private boolean isHeader(int start, int end)
+    {
+        int i = start;
+        while (i < end)
+        {
+            char ch = (char) buf.get(i);
+            if (ch == '[')
+                return true;
+            if (ch == '#')
+                return false;
+            if (CASScanner.isDelimiter(ch))
+            {
+                ++i;
+                continue;
+            }
+
+            if (Character.isLetterOrDigit(ch) || ch == '_')
+                return false;
+            while (i < end && !CASScanner.isDelimiter((char) buf.get(i)))
+                ++i;
+        }
+        return false;
+    }
+
+    private ChunkParser parse(Chunk chunk) throws IOException
+    {
+        ChunkParser parser = new ChunkParser(strategyData, new ByteReader(
+                buf, chunk.start, chunk.end));
+        parser.currentHeader = chunk.header;
+        parser.playerIndex = chunk.player;
+        parser.scanner.setLineNumber(chunk.firstLine - 1);
+        parser.parse();
+        return parser;
+    }
+
+    /**
+     * A piece of the file, and the state of the parser at its start
+     */
+    private static class Chunk
+    {
+        int               start, end;
+        int               firstLine;
+        CASParser.Headers header;
+        int               player;
+
+        Chunk(int start, int firstLine, CASParser.Headers header, int player)
+        {
+            this.start = start;
+            this.firstLine = firstLine;
+            this.header = header;
+            this.player = player;
+        }
+    }
+
+    /**
+     * A parser recording the regions, partitions and coefficients it finds,
+     * to apply them to the strategy later
+     */
+    private static class ChunkParser extends CASParser
+    {
+        /*
+         * The kinds of the records, other than the player indexes of the
+         * coefficients
+         */
+        private static final byte Region    = 11;
+        private static final byte Partition = 12;
+
+        private int               count     = 0;
+        private byte[]            kinds     = new byte[1024];
+        private String[]          names     = new String[1024];
+        private double[]          numbers   = new double[4 * 1024];
+
+        ChunkParser(StrategyData sd, Reader reader)
+        {
+            super(sd, reader);
+        }
+
+        void addRegion(String regName, double[] v)
+        {
+            record(Region, regName, v);
+        }
+
+        void addPartition(String regName, int priority)
+        {
+            record(Partition, regName, null);
+            numbers[4 * (count - 1)] = priority;
+        }
+
+        void addCoefs(int player, String regName, double[] v)
+        {
+            record((byte) player, regName, v);
+        }
+
+        private void record(byte kind, String regName, double[] v)
+        {
+            if (count == kinds.length)
+            {
+                byte[] k = new byte[2 * count];
+                System.arraycopy(kinds, 0, k, 0, count);
+                kinds = k;
+                String[] s = new String[2 * count];
+                System.arraycopy(names, 0, s, 0, count);
+                names = s;
+                double[] d = new double[8 * count];
+                System.arraycopy(numbers, 0, d, 0, 4 * count);
+                numbers = d;
+            }
+
+            kinds[count] = kind;
+            names[count] = regName;
+            if (v != null)
+                System.arraycopy(v, 0, numbers, 4 * count, 4);
+            ++count;
+        }
+
+        /**
+         * Applies the records to the strategy, in the order they were found
+         */
+        void apply()
+        {
+            double[] v = new double[4];
+            for (int i = 0; i < count; ++i)
+            {
+                System.arraycopy(numbers, 4 * i, v, 0, 4);
+                if (kinds[i] == Region)
+                    super.addRegion(names[i], v);
+                else if (kinds[i] == Partition)
+                    super.addPartition(names[i], (int) v[0]);
+                else
+                    super.addCoefs(kinds[i], names[i], v);
+            }
+        }
+    }
+
+    /**
+     * A <code>Reader</code> over a range of ASCII bytes, widening them right
+     * from the mapped buffer into the characters asked for
+     */
+    private static class ByteReader extends Reader
+    {
+        private ByteBuffer buf;
+
+        ByteReader(ByteBuffer buf, int start, int end)
+        {
+            this.buf = buf.duplicate();
+            this.buf.limit(end);
+            this.buf.position(start);
+        }
+
+        public int read(char[] cbuf, int off, int len)
+        {
+            int n = Math.min(len, buf.remaining());
+            if (n == 0)
+                return len == 0 ? 0 : -1;
+
+            ByteBuffer b = buf;
+            for (int i = 0; i < n; ++i)
+                cbuf[off + i] = (char) b.get();
+            return n;
+        }
+
+        public void close()
+        {
+        }
+    }
+}
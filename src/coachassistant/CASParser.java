@@ -0,0 +1,286 @@
+/*
+ This file is part of Coach Assistant
+ Copyright (C) 2004-2006 Sina Iravanian  <sina_iravanian@yahoo.com>
+
+ This program is free software; you can redistribute it and/or modify
+ it under the terms of the GNU General Public License as published by
+ the Free Software Foundation; version 2 of the License.
+
+ This program is distributed in the hope that it will be useful,
+ but WITHOUT ANY WARRANTY; without even the implied warranty of
+ MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ GNU General Public License for more details.
+
+ You should have received a copy of the GNU General Public License
+ along with this program; if not, write to the Free Software
+ Foundation, Inc., 675 Mass Ave, Cambridge, MA 02139, USA.
+ */
+
+package coachassistant;
+
+import java.io.IOException;
+import java.io.Reader;
+
+/**
+ * This class parses the contents of a <code>Reader</code> and stores the
+ * result into a <code>StrategyData</code> instance.
+ * <p>
+ * It assumes that the file is in a .cas file format, otherwise the behaviour of
+ * the parser is unknown.
+ * <p>
+ * The lines are scanned by a <code>CASScanner</code>. The problems found are
+ * not shown to the user, but collected in a <code>CASDiagnostics</code>.
+ *
+ * @author Sina
+ */
+class CASParser
+{
+    CASScanner          scanner;
+    StrategyData        strategyData;
+    Headers             currentHeader = null;
+    int                 playerIndex   = -1;
+
+    /**
+     * The 4 numbers of the current line
+     */
+    double[]            values        = new double[4];
+
+    /**
+     * The kind and 1-based column of the last error found in the current line
+     */
+    CASDiagnostics.Kind errorKind     = null;
+    int                 errorColumn   = 0;
+
+    /**
+     * The problems found so far
+     */
+    CASDiagnostics      diagnostics   = new CASDiagnostics();
+
+    public CASParser(StrategyData sd, Reader reader)
+    {
+        strategyData = sd;
+        scanner = new CASScanner(reader);
+    }
+
+    /**
+     * Parses the whole input.
+     *
+     * @return the problems found in the input
+     * @throws IOException
+     */
+    public CASDiagnostics parse() throws IOException
+    {
+        while (scanner.nextLine())
+        {
+            if (!parseLine())
+                diagnostics.add(errorKind, scanner.getLineNumber(),
+                        errorColumn, scanner.getLineText());
+        }
+        return diagnostics;
+    }
+
+    private boolean parseLine()
+    {
+        while (true)
+        {
+            scanner.skipWhiteSpace();
+            if (scanner.atEnd())
+                return true;
+
+            char ch = scanner.peek();
+            if (ch == '#')
+                return true;
+
+            if (ch == '[')
+            {
+                scanner.skip();
+                return parseSegmentHeader();
+            }
+
+            if (CASScanner.isDelimiter(ch))
+            {
+                scanner.skip();
+                continue;
+            }
+
+            int column = scanner.getColumn();
+            String token = scanner.readToken();
+            ch = token.charAt(0);
+            if (Character.isLetterOrDigit(ch) || ch == '_')
+            {
+                errorColumn = column;
+                return parseSegmentContent(token);
+            }
+        }
+    }
+
+    private boolean parseSegmentContent(String token)
+    {
+        if (currentHeader == null)
+        {
+            errorKind = CASDiagnostics.Kind.ContentOutsideSection;
+            return false;
+        }
+
+        switch (currentHeader)
+        {
+            case Partitions:
+            {
+                // the name may be followed by the priority of the partition;
+                // anything else after it is ignored
+                int priority = 0;
+                scanner.skipWhiteSpace();
+                int column = scanner.getColumn();
+                if (!scanner.atEnd() && scanner.readNumber())
+                {
+                    priority = (int) scanner.number;
+                    if (priority != scanner.number)
+                    {
+                        errorKind = CASDiagnostics.Kind.BadNumber;
+                        errorColumn = column;
+                        return false;
+                    }
+                }
+
+                addPartition(token, priority);
+                return true;
+            }
+            case Regions:
+            case Players:
+            {
+                int count = 0;
+                while (true)
+                {
+                    scanner.skipWhiteSpace();
+                    if (scanner.atEnd())
+                        break;
+
+                    errorColumn = scanner.getColumn();
+                    if (count == 4)
+                    {
+                        errorKind = CASDiagnostics.Kind.WrongValueCount;
+                        return false;
+                    }
+                    if (!scanner.readNumber())
+                    {
+                        errorKind = CASDiagnostics.Kind.BadNumber;
+                        return false;
+                    }
+
+                    values[count++] = scanner.number;
+                }
+
+                if (count != 4)
+                {
+                    errorKind = CASDiagnostics.Kind.WrongValueCount;
+                    errorColumn = scanner.getColumn();
+                    return false;
+                }
+
+                if (currentHeader == Headers.Regions)
+                    addRegion(token, values);
+                else
+                    addCoefs(playerIndex, token, values);
+                return true;
+            }
+            default:
+                errorKind = CASDiagnostics.Kind.ContentOutsideSection;
+                return false;
+        }
+    }
+
+    /**
+     * Called for each line of the regions section, with its 4 numbers in the
+     * field coordination
+     */
+    void addRegion(String regName, double[] v)
+    {
+        strategyData.addRegion(regName, Util.GlobalRect(new Rect4d(v[0], v[1],
+                v[2], v[3])));
+    }
+
+    /**
+     * Called for each line of the partitions section, with the priority of
+     * the partition (zero if none is given). Names which are not regions
+     * (yet) are ignored.
+     */
+    void addPartition(String regName, int priority)
+    {
+        if (strategyData.regionExists(regName))
+            strategyData.addRegToPartition(regName, priority);
+    }
+
+    /**
+     * Called for each line of a player section. Coefficients of anything but
+     * a partition are ignored.
+     */
+    void addCoefs(int player, String regName, double[] v)
+    {
+        if (strategyData.isRegInPartition(regName))
+            strategyData.setCoefForPlayer(player, regName, new Coefs4d(v[0],
+                    v[1], v[2], v[3]));
+    }
+
+    private boolean parseSegmentHeader()
+    {
+        errorColumn = scanner.getColumn();
+        if (!scanner.atEnd())
+        {
+            String token = scanner.readToken();
+
+            if (token.compareTo(Params.HeaderRegions) == 0)
+            {
+                currentHeader = Headers.Regions;
+                return true;
+            }
+            else if (token.compareTo(Params.HeaderPartitions) == 0)
+            {
+                currentHeader = Headers.Partitions;
+                return true;
+            }
+            else if (token.startsWith(Params.HeaderPlayers))
+            {
+                currentHeader = Headers.Players;
+
+                // PlayerA
+                // 0123456
+                int ch = -1;
+                if (token.length() >= 7)
+                    ch = token.charAt(6);
+
+                if (ch == 'A')
+                {
+                    playerIndex = 9;
+                    return true;
+                }
+                else if (ch == 'B')
+                {
+                    playerIndex = 10;
+                    return true;
+                }
+
+                int nch = Character.getNumericValue(ch)
+                        - Character.getNumericValue('0');
+
+                if (1 <= nch && nch <= 9)
+                {
+                    playerIndex = nch - 1;
+                    return true;
+                }
+            }
+        }
+        currentHeader = null;
+        errorKind = CASDiagnostics.Kind.UnknownHeader;
+        return false;
+    }
+
+    /**
+     * The 3 headers of a typical .cas file
+     *
+     * @author Sina
+     */
+    enum Headers
+    {
+        Regions, Partitions, Players
+    }
+}
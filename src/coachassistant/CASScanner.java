@@ -0,0 +1,358 @@
+/*
+ This file is part of Coach Assistant
+ Copyright (C) 2004-2006 Sina Iravanian  <sina_iravanian@yahoo.com>
+
+ This program is free software; you can redistribute it and/or modify
+ it under the terms of the GNU General Public License as published by
+ the Free Software Foundation; version 2 of the License.
+
+ This program is distributed in the hope that it will be useful,
+ but WITHOUT ANY WARRANTY; without even the implied warranty of
+ MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ GNU General Public License for more details.
+
+ You should have received a copy of the GNU General Public License
+ along with this program; if not, write to the Free Software
+ Foundation, Inc., 675 Mass Ave, Cambridge, MA 02139, USA.
+ */
+
+package coachassistant;
+
+import java.io.IOException;
+import java.io.Reader;
+
+/**
+ * A character level scanner for the lines of a .cas file.
+ * <p>
+ * It reads the underlying <code>Reader</code> through its own buffer, and
+ * keeps the current line in a reusable character array, so scanning a file
+ * does not allocate anything per line except for the names it returns.
+ * Numbers are parsed straight into doubles.
+ * <p>
+ * The delimiters of a .cas line are white-spaces and the
+ * <code>[ ] , #</code> characters.
+ */
+class CASScanner
+{
+    /**
+     * Powers of ten that are exactly representable as doubles
+     */
+    private static final double[] POW10   = { 1e0, 1e1, 1e2, 1e3, 1e4, 1e5,
+            1e6, 1e7, 1e8, 1e9, 1e10, 1e11, 1e12, 1e13, 1e14, 1e15, 1e16,
+            1e17, 1e18, 1e19, 1e20, 1e21, 1e22 };
+
+    private Reader                in;
+
+    /*
+     * The read buffer
+     */
+    private char[]                buf     = new char[8192];
+    private int                   bufPos  = 0, bufLen = 0;
+
+    /**
+     * true if the last line ended with a '\r', so a following '\n' must be
+     * skipped.
+     */
+    private boolean               skipLF  = false;
+
+    /*
+     * The current line
+     */
+    private char[]                line    = new char[256];
+    private int                   lineLen = 0;
+    private int                   lineNo  = 0;
+
+    /**
+     * The position of the scanner in the current line
+     */
+    private int                   pos     = 0;
+
+    /**
+     * The value of the last number read by <code>readNumber</code>
+     */
+    public double                 number  = 0.0;
+
+    public CASScanner(Reader in)
+    {
+        this.in = in;
+    }
+
+    /**
+     * Reads the next line into the scanner. Lines may be terminated by '\n',
+     * '\r', or "\r\n".
+     *
+     * @return false if the end of the stream is reached
+     * @throws IOException
+     */
+    public boolean nextLine() throws IOException
+    {
+        lineLen = 0;
+        pos = 0;
+        boolean any = false;
+
+        while (true)
+        {
+            if (bufPos >= bufLen)
+            {
+                bufLen = in.read(buf, 0, buf.length);
+                bufPos = 0;
+                if (bufLen <= 0)
+                {
+                    bufLen = 0;
+                    if (any)
+                        ++lineNo;
+                    return any;
+                }
+            }
+
+            char ch = buf[bufPos++];
+            if (skipLF)
+            {
+                skipLF = false;
+                if (ch == '\n')
+                    continue;
+            }
+
+            any = true;
+            if (ch == '\n' || ch == '\r')
+            {
+                skipLF = ch == '\r';
+                ++lineNo;
+                return true;
+            }
+
+            if (lineLen == line.length)
+            {
+                char[] l = new char[line.length * 2];
+                System.arraycopy(line, 0, l, 0, lineLen);
+                line = l;
+            }
+            line[lineLen++] = ch;
+        }
+    }
+
+    /**
+     * Sets the number of the line before the next one read, when the input
+     * does not start at the beginning of a file
+     */
+    void setLineNumber(int lineNo)
+    {
+        this.lineNo = lineNo;
+    }
+
+    /**
+     * returns the 1-based number of the current line
+     */
+    public int getLineNumber()
+    {
+        return lineNo;
+    }
+
+    /**
+     * returns the 1-based column of the scanner in the current line
+     */
+    public int getColumn()
+    {
+        return pos + 1;
+    }
+
+    /**
+     * returns the text of the current line
+     */
+    public String getLineText()
+    {
+        return new String(line, 0, lineLen);
+    }
+
+    /**
+     * Skips the white-spaces at the current position
+     */
+    public void skipWhiteSpace()
+    {
+        while (pos < lineLen && Character.isWhitespace(line[pos]))
+            ++pos;
+    }
+
+    /**
+     * returns true if the whole line has been scanned
+     */
+    public boolean atEnd()
+    {
+        return pos >= lineLen;
+    }
+
+    /**
+     * returns the character at the current position. Only call it if
+     * <code>atEnd()</code> is false.
+     */
+    public char peek()
+    {
+        return line[pos];
+    }
+
+    /**
+     * Moves the scanner one character forward
+     */
+    public void skip()
+    {
+        ++pos;
+    }
+
+    /**
+     * returns true if the argument is a delimiter of the .cas lines
+     */
+    public static boolean isDelimiter(char ch)
+    {
+        return ch == '[' || ch == ']' || ch == ',' || ch == '#'
+                || Character.isWhitespace(ch);
+    }
+
+    /**
+     * Reads the token (a run of non-delimiter characters) at the current
+     * position. Returns an empty string if the scanner is at a delimiter.
+     */
+    public String readToken()
+    {
+        int start = pos;
+        while (pos < lineLen && !isDelimiter(line[pos]))
+            ++pos;
+        return new String(line, start, pos - start);
+    }
+
+    /**
+     * Reads the token at the current position as a double, and stores it in
+     * <code>number</code>. On failure the scanner is left at the start of the
+     * token.
+     *
+     * @return false if the token is not a number
+     */
+    public boolean readNumber()
+    {
+        int start = pos;
+        int end = start;
+        while (end < lineLen && !isDelimiter(line[end]))
+            ++end;
+
+        if (end == start)
+            return false;
+
+        try
+        {
+            number = parseDouble(line, start, end);
+        }
+        catch (NumberFormatException ex)
+        {
+            return false;
+        }
+
+        pos = end;
+        return true;
+    }
+
+    /**
+     * Parses the characters <code>s[start..end)</code> as a double. The
+     * result is the same as the one of <code>Double.parseDouble</code>, but
+     * the common numbers are parsed without creating any objects.
+     *
+     * @throws NumberFormatException
+     *             if the characters are not a number
+     */
+    static double parseDouble(char[] s, int start, int end)
+    {
+        double d = parseFast(s, start, end);
+        if (!Double.isNaN(d))
+            return d;
+        return Double.parseDouble(new String(s, start, end - start));
+    }
+
+    /**
+     * Parses the common plain decimal numbers, like <code>-12.375</code> or
+     * <code>1.5E-3</code>, without creating any objects. It only accepts the
+     * numbers that can be converted exactly, i.e. having at most 15
+     * significant digits and a decimal exponent within 22, so the result is
+     * always the same as <code>Double.parseDouble</code>.
+     *
+     * @return NaN if the number must be parsed by
+     *         <code>Double.parseDouble</code>
+     */
+    private static double parseFast(char[] s, int start, int end)
+    {
+        int i = start;
+        boolean neg = false;
+        if (s[i] == '-' || s[i] == '+')
+        {
+            neg = s[i] == '-';
+            ++i;
+        }
+
+        long m = 0;
+        int sig = 0, scale = 0;
+        boolean anyDigit = false, dot = false;
+        for (; i < end; ++i)
+        {
+            char ch = s[i];
+            if (ch >= '0' && ch <= '9')
+            {
+                anyDigit = true;
+                if (m != 0 || ch != '0')
+                {
+                    if (++sig > 15)
+                        return Double.NaN;
+                    m = m * 10 + (ch - '0');
+                }
+                if (dot)
+                    --scale;
+            }
+            else if (ch == '.' && !dot)
+            {
+                dot = true;
+            }
+            else
+            {
+                break;
+            }
+        }
+
+        if (!anyDigit)
+            return Double.NaN;
+
+        if (i < end)
+        {
+            if (s[i] != 'e' && s[i] != 'E')
+                return Double.NaN;
+            ++i;
+
+            boolean negExp = false;
+            if (i < end && (s[i] == '-' || s[i] == '+'))
+            {
+                negExp = s[i] == '-';
+                ++i;
+            }
+
+            if (i == end)
+                return Double.NaN;
+
+            int exp = 0;
+            for (; i < end; ++i)
+            {
+                char ch = s[i];
+                if (ch < '0' || ch > '9' || exp > 1000)
+                    return Double.NaN;
+                exp = exp * 10 + (ch - '0');
+            }
+            scale += negExp ? -exp : exp;
+        }
+
+        double d;
+        if (m == 0)
+            d = 0.0;
+        else if (scale >= 0 && scale < POW10.length)
+            d = m * POW10[scale];
+        else if (scale < 0 && -scale < POW10.length)
+            d = m / POW10[-scale];
+        else
+            return Double.NaN;
+
+        return neg ? -d : d;
+    }
+}
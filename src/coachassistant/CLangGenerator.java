@@ -21,12 +21,24 @@ package coachassistant;
 import java.io.BufferedWriter;
 import java.io.FileWriter;
 import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Iterator;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 
 /**
  * This class serves as the CLang Generator. It makes use of the strategy-data
  * of the strategy, and generates CLang statements according to the user's
  * options.
+ * <p>
+ * Regions are written sorted by their names, and partitions in the order of
+ * the partitions, so the same strategy always generates the same text. The
+ * positioning rules of large strategies are generated in parallel, and then
+ * written in that same order.
  * 
  * @author Sina
  * 
@@ -76,11 +88,42 @@ public class CLangGenerator
      */
     public double  posRadius       = -1.0;
 
+    /**
+     * The number of threads used for generating the positioning rules.
+     */
+    public int     threads         = Runtime.getRuntime()
+                                           .availableProcessors();
+
     /**
      * The name of the file that the CLang statements will be saved in.
      */
     private String fileName        = "";
 
+    /**
+     * The buffer every generated line is built in. It is reused for all the
+     * lines, so generating a rule does not create intermediate strings.
+     */
+    private StringBuilder sbLine    = new StringBuilder(256);
+
+    /**
+     * Scratch array used to hand the contents of <code>sbLine</code> to the
+     * writer.
+     */
+    private char[]        lineChars = new char[256];
+
+    /**
+     * The partition names in their order, taken when the generation starts.
+     * The rules are written in this order, so that the first matching rule is
+     * the one of the partition that wins on the pitch.
+     */
+    private String[]      partNames = null;
+
+    /**
+     * Strategies with fewer partitions than this are generated on a single
+     * thread.
+     */
+    private static final int ParallelThreshold = 64;
+
     public CLangGenerator(StrategyData st, String fileName)
     {
         strategyData = st;
@@ -89,6 +132,8 @@ public class CLangGenerator
 
     public void generateCLang() throws IOException
     {
+        partNames = names(strategyData.getPartitionNamesIterator());
+
         BufferedWriter bw = new BufferedWriter(new FileWriter(fileName));
 
         defineRegions(bw);
@@ -134,79 +179,197 @@ public class CLangGenerator
     }
 
     private void generatePositionings(BufferedWriter bw) throws IOException
+    {
+        Util.writeLine(bw, "# Positionings");
+
+        if (threads <= 1 || partNames.length < ParallelThreshold)
+        {
+            Coefs4d cs = new Coefs4d(0.0, 0.0, 0.0, 0.0);
+            StringBuilder sb = new StringBuilder(4096);
+            for (int i = 0; i < partNames.length; ++i)
+            {
+                sb.setLength(0);
+                appendPartitionRules(partNames[i], sb, cs);
+                write(bw, sb);
+            }
+            return;
+        }
+
+        // Each task generates the rules of a consecutive range of the
+        // partitions, in their order; the results are written in the order of
+        // the ranges.
+        int nChunks = Math.min(partNames.length, threads * 4);
+        ExecutorService pool = Executors.newFixedThreadPool(threads);
+        try
+        {
+            ArrayList<Future<StringBuilder>> listChunks = new ArrayList<Future<StringBuilder>>();
+            for (int c = 0; c < nChunks; ++c)
+            {
+                final int from = (int) ((long) partNames.length * c / nChunks);
+                final int to = (int) ((long) partNames.length * (c + 1)
+                        / nChunks);
+                listChunks.add(pool.submit(new Callable<StringBuilder>()
+                {
+                    public StringBuilder call()
+                    {
+                        Coefs4d cs = new Coefs4d(0.0, 0.0, 0.0, 0.0);
+                        StringBuilder sb = new StringBuilder(4096);
+                        for (int i = from; i < to; ++i)
+                            appendPartitionRules(partNames[i], sb, cs);
+                        return sb;
+                    }
+                }));
+            }
+
+            for (int c = 0; c < nChunks; ++c)
+                write(bw, listChunks.get(c).get());
+        }
+        catch (InterruptedException ex)
+        {
+            throw new IOException("CLang generation interrupted");
+        }
+        catch (ExecutionException ex)
+        {
+            throw new RuntimeException(ex.getCause());
+        }
+        finally
+        {
+            pool.shutdownNow();
+        }
+    }
+
+    /**
+     * Appends the positioning rules of all the players for a partition,
+     * including the comment line before them and the empty line after them.
+     * <p>
+     * It only reads the strategy-data, so it may be called from several
+     * threads at once.
+     * 
+     * @param partName
+     *            the name of the partition
+     * @param sb
+     *            the buffer to append the lines to
+     * @param cs
+     *            a scratch instance used to read the coefficients
+     */
+    private void appendPartitionRules(String partName, StringBuilder sb,
+            Coefs4d cs)
     {
         boolean bFRadius = freedomRadius > 0.0;
         boolean bCustom = customCondition.length() > 0;
         boolean isCndEmpty = !addPlayon && !bFRadius && !bCustom;
         boolean bPrefix = ruleNamePrefix.length() > 0;
         boolean bPosRadius = posRadius > 0.0;
+        double freedom = Util.roundDefault(freedomRadius);
 
-        Util.writeLine(bw, "# Positionings");
+        CoefsStore store = strategyData.getCoefsStore();
 
-        Iterator<String> it = strategyData.getPartitionNamesIterator();
-        String partName = "";
-        Coefs4d cs = null;
-        String strLine = "";
-        while (it.hasNext())
+        sb.append("# ").append(partName).append('\n');
+
+        int id = store.getId(partName);
+        for (int i = 0; id >= 0 && i < 11; ++i)
         {
-            partName = it.next();
-            Util.writeLine(bw, "# " + partName);
-            for (int i = 0; i < 11; ++i)
+            if (store.exists(i, id))
             {
-                if (strategyData.partitionExistsForPlayer(i, partName))
-                {
-                    cs = strategyData.getPlayerCoefs(i, partName);
-                    strLine = "(say (define (definerule RULE_";
+                store.get(i, id, cs);
+                sb.append("(say (define (definerule RULE_");
 
-                    if (bPrefix)
-                        strLine += ruleNamePrefix;
+                if (bPrefix)
+                    sb.append(ruleNamePrefix);
 
-                    strLine += partName;
-                    if ((i + 1) < 10)
-                        strLine += "0";
-                    strLine += i + 1;
-                    strLine += " direc (";
+                sb.append(partName);
+                if ((i + 1) < 10)
+                    sb.append('0');
+                sb.append(i + 1);
+                sb.append(" direc (");
 
-                    if (isCndEmpty)
-                    {
-                        strLine += "(bpos \"" + partName + "\")";
-                    }
-                    else
-                    {
-                        strLine += "(and ";
-                        if (addPlayon)
-                            strLine += "(playm play_on)";
+                if (isCndEmpty)
+                {
+                    sb.append("(bpos \"").append(partName).append("\")");
+                }
+                else
+                {
+                    sb.append("(and ");
+                    if (addPlayon)
+                        sb.append("(playm play_on)");
 
-                        strLine += "(bpos \"" + partName + "\")";
+                    sb.append("(bpos \"").append(partName).append("\")");
 
-                        if (bFRadius)
-                            strLine += "(not (bpos (arc (pt our " + (i + 1)
-                                    + ") 0 " + Util.roundDefault(freedomRadius)
-                                    + " 0 360 )))";
+                    if (bFRadius)
+                        sb.append("(not (bpos (arc (pt our ").append(i + 1)
+                                .append(") 0 ").append(freedom).append(
+                                        " 0 360 )))");
 
-                        if (bCustom)
-                            strLine += customCondition;
+                    if (bCustom)
+                        sb.append(customCondition);
 
-                        strLine += ") ";
-                    }
+                    sb.append(") ");
+                }
 
-                    if (bPosRadius)
-                    {
-                        strLine += "(do our {" + (i + 1) + "} (pos (arc "
-                                + cs.toCLang();
-                        strLine += " 0 " + posRadius + " 0 360 ))) ))))";
-                    }
-                    else
-                    {
-                        strLine += "(do our {" + (i + 1) + "} (pos "
-                                + cs.toCLang();
-                        strLine += " )) ))))";
-                    }
-                    Util.writeLine(bw, strLine);
+                if (bPosRadius)
+                {
+                    sb.append("(do our {").append(i + 1).append(
+                            "} (pos (arc ");
+                    cs.appendCLang(sb);
+                    sb.append(" 0 ").append(posRadius).append(
+                            " 0 360 ))) ))))");
                 }
+                else
+                {
+                    sb.append("(do our {").append(i + 1).append("} (pos ");
+                    cs.appendCLang(sb);
+                    sb.append(" )) ))))");
+                }
+                sb.append('\n');
             }
-            Util.writeLine(bw, "");
         }
+        sb.append('\n');
+    }
+
+    /**
+     * returns the strings of an iterator as an array, in their order
+     */
+    private static String[] names(Iterator<String> it)
+    {
+        ArrayList<String> list = new ArrayList<String>();
+        while (it.hasNext())
+            list.add(it.next());
+        return list.toArray(new String[list.size()]);
+    }
+
+    /**
+     * returns the strings of an iterator as a sorted array
+     */
+    private static String[] sortedNames(Iterator<String> it)
+    {
+        String[] names = names(it);
+        Arrays.sort(names);
+        return names;
+    }
+
+    /**
+     * Writes the contents of a <code>StringBuilder</code>, without turning it
+     * into a string.
+     */
+    private void write(BufferedWriter bw, StringBuilder sb) throws IOException
+    {
+        int n = sb.length();
+        if (n > lineChars.length)
+            lineChars = new char[Math.max(n, 2 * lineChars.length)];
+
+        sb.getChars(0, n, lineChars, 0);
+        bw.write(lineChars, 0, n);
+    }
+
+    /**
+     * Writes the contents of a <code>StringBuilder</code> followed by a
+     * new-line character, without turning it into a string.
+     */
+    private void writeLine(BufferedWriter bw, StringBuilder sb)
+            throws IOException
+    {
+        write(bw, sb);
+        bw.write('\n');
     }
 
     /**
@@ -232,10 +395,9 @@ public class CLangGenerator
 
         boolean found = false;
         String strRegName = "";
-        Iterator<String> it = strategyData.getPartitionNamesIterator();
-        while (it.hasNext())
+        for (int i = 0; i < partNames.length; ++i)
         {
-            strRegName = it.next();
+            strRegName = partNames[i];
             if (Util.FieldRect(strategyData.getRectForRegion(strRegName))
                     .contains(x, y))
             {
@@ -278,17 +440,19 @@ public class CLangGenerator
 
         // Now generate the rule
         Util.writeLine(bw, "# Home Positionings");
-        String strLine = "(say (define (definerule RULE_HOMES direc ((true) ";
+        StringBuilder sb = sbLine;
+        sb.setLength(0);
+        sb.append("(say (define (definerule RULE_HOMES direc ((true) ");
 
         for (int i = 1; i < 11; ++i)
         {
-            strLine += "(do our {" + (i + 1) + "} (home (pt "
-                    + Util.roundDefault(homeXs[i]) + " "
-                    + Util.roundDefault(homeYs[i]) + "))) ";
+            sb.append("(do our {").append(i + 1).append("} (home (pt ");
+            sb.append(Util.roundDefault(homeXs[i])).append(' ');
+            sb.append(Util.roundDefault(homeYs[i])).append("))) ");
         }
 
-        strLine += " ) ) ) )";
-        Util.writeLine(bw, strLine);
+        sb.append(" ) ) ) )");
+        writeLine(bw, sb);
         Util.writeLine(bw, "");
     }
 
@@ -296,19 +460,21 @@ public class CLangGenerator
     {
         Util.writeLine(bw, "# Regions Definitions");
 
-        Iterator<String> it = strategyData.getRegionNamesIterator();
+        String[] regNames = sortedNames(strategyData
+                .getRegionNamesIterator());
         String regName;
-        while (it.hasNext())
+        StringBuilder sb = sbLine;
+        for (int i = 0; i < regNames.length; ++i)
         {
-            regName = it.next();
-            String strLine = "";
-            strLine += "(say (define (definer \""
-                    + regName
-                    + "\" "
-                    + Util.FieldRect(strategyData.getRectForRegion(regName))
-                            .toCLang() + " )))";
-
-            Util.writeLine(bw, strLine);
+            regName = regNames[i];
+            sb.setLength(0);
+            sb.append("(say (define (definer \"").append(regName).append(
+                    "\" ");
+            Util.FieldRect(strategyData.getRectForRegion(regName))
+                    .appendCLang(sb);
+            sb.append(" )))");
+
+            writeLine(bw, sb);
         }
 
         if (enableShooting)
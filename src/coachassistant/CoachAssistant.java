@@ -45,6 +45,7 @@ import javax.swing.BorderFactory;
 import javax.swing.ButtonGroup;
 import javax.swing.ImageIcon;
 import javax.swing.JButton;
+import javax.swing.JCheckBoxMenuItem;
 import javax.swing.JFrame;
 import javax.swing.JLabel;
 import javax.swing.JMenu;
@@ -55,6 +56,7 @@ import javax.swing.JPanel;
 import javax.swing.JPopupMenu;
 import javax.swing.JRadioButtonMenuItem;
 import javax.swing.JScrollPane;
+import javax.swing.JTextArea;
 import javax.swing.JToggleButton;
 import javax.swing.JToolBar;
 import javax.swing.UIManager;
@@ -326,6 +328,8 @@ public class CoachAssistant extends JFrame implements ActionListener,
     JMenuItem mnuSaveAs;
     JMenuItem mnuExit;
     JMenuItem mnuAbout;
+    JCheckBoxMenuItem mnuCoverage;
+    JMenuItem mnuCheckPartitions;
 
     private void createMenus()
     {
@@ -360,6 +364,21 @@ public class CoachAssistant extends JFrame implements ActionListener,
         fileMenu.addSeparator();
         fileMenu.add(mnuExit);
 
+        JMenu viewMenu = new JMenu("View");
+        viewMenu.setMnemonic('v');
+
+        mnuCoverage = new JCheckBoxMenuItem("Coverage map");
+        mnuCoverage.setMnemonic('c');
+        mnuCoverage.addActionListener(this);
+
+        mnuCheckPartitions = new JMenuItem("Check partitions ...");
+        mnuCheckPartitions.setMnemonic('p');
+        mnuCheckPartitions.addActionListener(this);
+
+        viewMenu.add(mnuCoverage);
+        viewMenu.addSeparator();
+        viewMenu.add(mnuCheckPartitions);
+
         JMenu helpMenu = new JMenu("Help");
         fileMenu.setMnemonic('h');
 
@@ -371,6 +390,7 @@ public class CoachAssistant extends JFrame implements ActionListener,
 
         JMenuBar bar = new JMenuBar();
         bar.add(fileMenu);
+        bar.add(viewMenu);
         bar.add(helpMenu);
         setJMenuBar(bar);
     }
@@ -555,6 +575,14 @@ public class CoachAssistant extends JFrame implements ActionListener,
             clipboard.setContents(new StringSelection(statCoefs.getText()),
                     this);
         }
+        else if (sender == mnuCoverage)
+        {
+            pitch.setShowCoverage(mnuCoverage.isSelected());
+        }
+        else if (sender == mnuCheckPartitions)
+        {
+            cmdCheckPartitions();
+        }
         else if (sender == mnuAbout)
         {
             cmdAbout();
@@ -604,6 +632,23 @@ public class CoachAssistant extends JFrame implements ActionListener,
                 JOptionPane.PLAIN_MESSAGE);
     }
 
+    /**
+     * shows the overlaps and gaps of the partitions, and the missing
+     * coefficients.
+     */
+    private void cmdCheckPartitions()
+    {
+        PartitionAnalyzer pa = new PartitionAnalyzer(strategyData);
+
+        JTextArea text = new JTextArea(pa.getReport(100), 20, 60);
+        text.setEditable(false);
+        text.setCaretPosition(0);
+
+        JOptionPane.showMessageDialog(this, new JScrollPane(text),
+                "Check partitions", pa.isEmpty() ? JOptionPane.PLAIN_MESSAGE
+                        : JOptionPane.WARNING_MESSAGE);
+    }
+
     /**
      * Called whenever the user tries to exit. It first make sure that the file
      * is not modified; if so prompts the user to save it.
@@ -771,7 +816,7 @@ public class CoachAssistant extends JFrame implements ActionListener,
         {
             try
             {
-                strategyData.saveToFile(fileName);
+                strategyData.saveIncremental(fileName);
                 isModified = false;
                 showCaption();
                 return true;
@@ -825,13 +870,20 @@ public class CoachAssistant extends JFrame implements ActionListener,
         {
             try
             {
-                strategyData.readFromFile(openedFileName);
+                CASDiagnostics diag = strategyData
+                        .readFromFile(openedFileName);
                 resetAll();
                 isNew = false;
                 isModified = false;
                 fileName = openedFileName;
                 pitch.repaint();
                 showCaption();
+
+                if (!diag.isEmpty())
+                    JOptionPane.showMessageDialog(this, "Some lines of\n"
+                            + openedFileName + "\nwere skipped.\n\n"
+                            + diag.getSummary(20), "Problems in file",
+                            JOptionPane.WARNING_MESSAGE);
             }
             catch (IOException ex)
             {
@@ -53,8 +53,21 @@ public class Coefs4d
 
     public String toCLang()
     {
-        return "(((pt ball) * (pt  " + Util.roundTo(c1, 2) + "  "
-                + Util.roundTo(c2, 2) + ")) + (pt  " + Util.roundTo(o1, 2)
-                + "  " + Util.roundTo(o2, 2) + "))";
+        return appendCLang(new StringBuilder(64)).toString();
+    }
+
+    /**
+     * Appends the CLang counterpart of the coefficients (the same as
+     * <code>toCLang</code>) to a <code>StringBuilder</code>.
+     * 
+     * @return the <code>StringBuilder</code> passed
+     */
+    public StringBuilder appendCLang(StringBuilder sb)
+    {
+        sb.append("(((pt ball) * (pt  ").append(Util.roundTo(c1, 2));
+        sb.append("  ").append(Util.roundTo(c2, 2));
+        sb.append(")) + (pt  ").append(Util.roundTo(o1, 2));
+        sb.append("  ").append(Util.roundTo(o2, 2)).append("))");
+        return sb;
     }
 }
@@ -0,0 +1,834 @@
+/*
+ This file is part of Coach Assistant
+ Copyright (C) 2004-2006 Sina Iravanian  <sina_iravanian@yahoo.com>
+
+ This program is free software; you can redistribute it and/or modify
+ it under the terms of the GNU General Public License as published by
+ the Free Software Foundation; version 2 of the License.
+
+ This program is distributed in the hope that it will be useful,
+ but WITHOUT ANY WARRANTY; without even the implied warranty of
+ MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ GNU General Public License for more details.
+
+ You should have received a copy of the GNU General Public License
+ along with this program; if not, write to the Free Software
+ Foundation, Inc., 675 Mass Ave, Cambridge, MA 02139, USA.
+ */
+
+package coachassistant;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * Fits the coefficients of the players to recorded samples of (ball position,
+ * player position), by least squares.
+ * <p>
+ * Since the formulas of <code>Coefs4d</code> treat x and y separately, the
+ * fit of each player in each partition is a pair of linear regressions, one
+ * per axis, and only their sums are needed. So the samples are streamed, never
+ * kept in memory, and the sums of several inputs can be merged. A sample
+ * counts for the partition the formation would use for its ball position
+ * (the first one containing it).
+ * <p>
+ * The samples are taken from the cycles of text game logs (.rcg, .rcg.gz), as
+ * in <code>ReplayScorer</code>, or from sample files (.txt) having a sample
+ * per line:
+ *
+ * <pre>
+ * ballX  ballY  unum  playerX  playerY
+ * </pre>
+ *
+ * in the field coordination of a team playing on the left side. Empty lines
+ * and lines starting with # are ignored. The logs, and pieces of
+ * <code>ChunkSize</code> bytes of the sample files, are read in parallel, each
+ * thread adding to an accumulator of its own. The inputs are dealt to the
+ * threads in turn and the accumulators merged in order, so the result is the
+ * same on every run with the same number of threads.
+ * <p>
+ * There is no outlier rejection; the fit is a plain least squares one.
+ * <p>
+ * Usage:
+ *
+ * <pre>
+ * java -cp coachassistant.jar coachassistant.CoefsFitter [options] strategy.cas inputs...
+ * </pre>
+ */
+public class CoefsFitter
+{
+    /**
+     * Extension of the sample files
+     */
+    public static final String SampleFilesExt = "txt";
+
+    /**
+     * Size of the pieces the sample files are read in, in parallel
+     */
+    public static final long   ChunkSize      = 16L << 20;
+
+    /**
+     * Number of the sums kept for each player in each partition
+     */
+    static final int           Stride         = 11;
+
+    private CompiledFormation  formation;
+
+    /**
+     * Name of our team in the logs, or null to use <code>side</code>
+     */
+    private String             teamName;
+
+    /**
+     * Our side in the logs when <code>teamName</code> is null: 0 for left, 1
+     * for right
+     */
+    private int                side;
+
+    /**
+     * Whether only the play_on cycles of the logs are used
+     */
+    private boolean            playOnOnly     = false;
+
+    /**
+     * The sums of the samples, per player and partition.
+     */
+    public static class Accumulator
+    {
+        /**
+         * Indexed by (partition * 11 + player) * Stride: the number of the
+         * samples, then for x and y each the sums of b, b*b, u, b*u and u*u,
+         * where b is the ball coordinate and u the player one.
+         */
+        double[]         sums;
+
+        private long     samples = 0;
+
+        /**
+         * The samples which fell in no partition
+         */
+        private long     skipped = 0;
+
+        Accumulator(int partitions)
+        {
+            sums = new double[partitions * 11 * Stride];
+        }
+
+        /**
+         * Adds a sample.
+         *
+         * @param partition
+         *            index of the partition in the formation
+         * @param player
+         *            index of the player (0 to 10)
+         */
+        public void add(int partition, int player, double bx, double by,
+                double px, double py)
+        {
+            int i = (partition * 11 + player) * Stride;
+            double[] s = sums;
+            s[i] += 1.0;
+            s[i + 1] += bx;
+            s[i + 2] += bx * bx;
+            s[i + 3] += px;
+            s[i + 4] += bx * px;
+            s[i + 5] += px * px;
+            s[i + 6] += by;
+            s[i + 7] += by * by;
+            s[i + 8] += py;
+            s[i + 9] += by * py;
+            s[i + 10] += py * py;
+            ++samples;
+        }
+
+        public void merge(Accumulator acc)
+        {
+            for (int i = 0; i < sums.length; ++i)
+                sums[i] += acc.sums[i];
+            samples += acc.samples;
+            skipped += acc.skipped;
+        }
+
+        public long getSampleCount()
+        {
+            return samples;
+        }
+
+        /**
+         * returns the number of the samples whose ball was in no partition
+         */
+        public long getSkippedCount()
+        {
+            return skipped;
+        }
+    }
+
+    /**
+     * The fitted coefficients of a player in a partition
+     */
+    public static class Fit
+    {
+        public final String  partition;
+
+        /**
+         * The 0-based index of the player
+         */
+        public final int     player;
+
+        public final long    samples;
+
+        public final Coefs4d coefs;
+
+        /**
+         * The root mean square of the distances of the samples from the
+         * positions given by the coefficients
+         */
+        public final double  rms;
+
+        public Fit(String partition, int player, long samples, Coefs4d coefs,
+                double rms)
+        {
+            this.partition = partition;
+            this.player = player;
+            this.samples = samples;
+            this.coefs = coefs;
+            this.rms = rms;
+        }
+
+        public String toString()
+        {
+            return String.format("%-20s %6d %10d %8.2f %8.2f %8.2f %8.2f "
+                    + "%8.2f", partition, player + 1, samples, coefs.c1,
+                    coefs.c2, coefs.o1, coefs.o2, rms);
+        }
+    }
+
+    /**
+     * Creates a fitter for the team playing on a given side in the logs.
+     *
+     * @param side
+     *            0 for the left team, 1 for the right one
+     */
+    public CoefsFitter(CompiledFormation formation, int side)
+    {
+        this.formation = formation;
+        this.side = side;
+    }
+
+    /**
+     * Creates a fitter for the team with a given name in the logs, on
+     * whichever side it plays.
+     */
+    public CoefsFitter(CompiledFormation formation, String teamName)
+    {
+        this.formation = formation;
+        this.teamName = teamName;
+    }
+
+    /**
+     * Sets whether only the play_on cycles of the logs are used, leaving out
+     * the set plays. It is false by default.
+     */
+    public void setPlayOnOnly(boolean playOnOnly)
+    {
+        this.playOnOnly = playOnOnly;
+    }
+
+    /**
+     * returns the number of the partitions the samples are accumulated in
+     */
+    int getPartitionCount()
+    {
+        return formation.getPartitionCount();
+    }
+
+    /**
+     * returns the partition a sample counts for, given the position of its
+     * ball, or -1 if none
+     */
+    int getPartitionAt(double bx, double by)
+    {
+        return formation.getPartitionAt(bx, by);
+    }
+
+    public Accumulator createAccumulator()
+    {
+        return new Accumulator(getPartitionCount());
+    }
+
+    /**
+     * Adds a sample to an accumulator, in the partition the formation uses
+     * for the ball position. The positions are in the field coordination.
+     *
+     * @param player
+     *            index of the player (0 to 10)
+     */
+    public void addSample(Accumulator acc, double bx, double by, int player,
+            double px, double py)
+    {
+        int part = getPartitionAt(bx, by);
+        if (part < 0)
+            ++acc.skipped;
+        else
+            acc.add(part, player, bx, by, px, py);
+    }
+
+    /**
+     * Reads the samples of a game log.
+     *
+     * @throws IOException
+     *             if the log can not be read, or our team is not found in it
+     */
+    public Accumulator readLog(File file) throws IOException
+    {
+        Accumulator acc = createAccumulator();
+        readLog(file, acc);
+        return acc;
+    }
+
+    /**
+     * Reads the samples of a game log into an accumulator.
+     *
+     * @throws IOException
+     *             if the log can not be read, or our team is not found in it
+     */
+    public void readLog(File file, Accumulator acc) throws IOException
+    {
+        RcgReader reader = new RcgReader(file);
+        try
+        {
+            int ourSide = teamName == null ? side : -1;
+            while (reader.nextShow())
+            {
+                if (ourSide < 0)
+                {
+                    if (teamName.equals(reader.teamNames[0]))
+                        ourSide = 0;
+                    else if (teamName.equals(reader.teamNames[1]))
+                        ourSide = 1;
+                    else
+                        continue;
+                }
+
+                if (playOnOnly && !reader.playMode.equals("play_on"))
+                    continue;
+
+                // the formation is for the left side
+                double sign = ourSide == 0 ? 1.0 : -1.0;
+                double bx = sign * reader.ballX;
+                double by = sign * reader.ballY;
+
+                int part = getPartitionAt(bx, by);
+                for (int p = 0; p < 11; ++p)
+                {
+                    if (!reader.playerOn[ourSide][p])
+                        continue;
+                    if (part < 0)
+                        ++acc.skipped;
+                    else
+                        acc.add(part, p, bx, by, sign
+                                * reader.playerX[ourSide][p], sign
+                                * reader.playerY[ourSide][p]);
+                }
+            }
+
+            if (ourSide < 0)
+                throw new IOException(file + ": team " + teamName
+                        + " not found");
+        }
+        finally
+        {
+            reader.close();
+        }
+    }
+
+    /**
+     * Reads the samples of the lines of a sample file starting in the bytes
+     * <code>[start, end)</code>.
+     *
+     * @throws IOException
+     *             if the file can not be read, or a line is malformed
+     */
+    public Accumulator readSamples(File file, long start, long end)
+            throws IOException
+    {
+        Accumulator acc = createAccumulator();
+        readSamples(file, start, end, acc);
+        return acc;
+    }
+
+    /**
+     * Reads the samples of the lines of a sample file starting in the bytes
+     * <code>[start, end)</code> into an accumulator.
+     *
+     * @throws IOException
+     *             if the file can not be read, or a line is malformed
+     */
+    public void readSamples(File file, long start, long end, Accumulator acc)
+            throws IOException
+    {
+        RandomAccessFile raf = new RandomAccessFile(file, "r");
+        try
+        {
+            FileChannel channel = raf.getChannel();
+            ByteBuffer buf = ByteBuffer.allocate(1 << 16);
+            byte[] bytes = buf.array();
+            int bufPos = 0, bufLen = 0;
+
+            // a line starting before start belongs to the previous piece, so
+            // the piece starts after the first new-line at or after start - 1
+            long pos = Math.max(0, start - 1);
+            channel.position(pos);
+            boolean skipping = start > 0;
+
+            char[] line = new char[256];
+            int len = 0;
+            double[] values = new double[5];
+            while (true)
+            {
+                if (bufPos == bufLen)
+                {
+                    buf.clear();
+                    bufLen = Math.max(0, channel.read(buf));
+                    bufPos = 0;
+                }
+
+                int ch = bufPos < bufLen ? bytes[bufPos++] & 0xff : -1;
+                if (ch >= 0 && ch != '\n')
+                {
+                    if (!skipping)
+                    {
+                        if (len == line.length)
+                        {
+                            char[] l = new char[2 * len];
+                            System.arraycopy(line, 0, l, 0, len);
+                            line = l;
+                        }
+                        line[len++] = (char) ch;
+                    }
+                    continue;
+                }
+
+                // the end of a line; pos is where it started
+                if (skipping)
+                    skipping = false;
+                else if (len > 0 && parseSample(line, len, values))
+                {
+                    int unum = (int) values[2];
+                    if (unum < 1 || unum > 11 || unum != values[2])
+                        throw new IOException(file
+                                + ": bad uniform number in \""
+                                + new String(line, 0, len).trim() + "\"");
+                    addSample(acc, values[0], values[1], unum - 1,
+                            values[3], values[4]);
+                }
+
+                pos = channel.position() - bufLen + bufPos;
+                len = 0;
+                if (ch < 0 || pos >= end)
+                    break;
+            }
+        }
+        catch (NumberFormatException ex)
+        {
+            throw new IOException(file + ": " + ex.getMessage());
+        }
+        finally
+        {
+            raf.close();
+        }
+    }
+
+    /**
+     * Parses the five numbers of a line of a sample file.
+     *
+     * @return false if the line is empty or a comment
+     * @throws NumberFormatException
+     *             if the line is malformed
+     */
+    private static boolean parseSample(char[] line, int len, double[] values)
+    {
+        int pos = 0;
+        for (int i = 0; i < values.length; ++i)
+        {
+            while (pos < len && Character.isWhitespace(line[pos]))
+                ++pos;
+            if (pos < len && line[pos] == '#' || pos == len)
+            {
+                if (i == 0)
+                    return false;
+                throw new NumberFormatException("too few numbers in \""
+                        + new String(line, 0, len).trim() + "\"");
+            }
+
+            int start = pos;
+            while (pos < len && !Character.isWhitespace(line[pos]))
+                ++pos;
+            values[i] = CASScanner.parseDouble(line, start, pos);
+        }
+        return true;
+    }
+
+    /**
+     * Reads several inputs in parallel, and merges their sums. The game logs
+     * are read each as a job, and the sample files in pieces of
+     * <code>ChunkSize</code> bytes. Each thread reads every
+     * <code>threads</code>-th job into an accumulator of its own, and the
+     * accumulators of the threads are merged in order, so only one
+     * accumulator per thread is kept in memory. The samples read from an
+     * input before a problem is found in it are kept.
+     *
+     * @param threads
+     *            number of the inputs read at the same time
+     * @param errors
+     *            the messages of the inputs which could not be read are added
+     *            to this list
+     */
+    public Accumulator readAll(List<File> files, int threads,
+            List<String> errors)
+    {
+        final ArrayList<Job> listJobs = new ArrayList<Job>();
+        for (int i = 0; i < files.size(); ++i)
+        {
+            final File file = files.get(i);
+            if (!file.getName().toLowerCase().endsWith("." + SampleFilesExt))
+            {
+                listJobs.add(new Job(file)
+                {
+                    void read(Accumulator acc) throws IOException
+                    {
+                        readLog(file, acc);
+                    }
+                });
+                continue;
+            }
+
+            long size = file.length();
+            for (long start = 0; start == 0 || start < size; start += ChunkSize)
+            {
+                final long from = start;
+                final long to = Math.min(size, start + ChunkSize);
+                listJobs.add(new Job(file)
+                {
+                    void read(Accumulator acc) throws IOException
+                    {
+                        readSamples(file, from, to, acc);
+                    }
+                });
+            }
+        }
+
+        final int nThreads = Math.max(1, Math.min(threads, listJobs.size()));
+        ExecutorService pool = Executors.newFixedThreadPool(nThreads);
+        ArrayList<Future<Accumulator>> listResults = new ArrayList<Future<Accumulator>>();
+        for (int t = 0; t < nThreads; ++t)
+        {
+            final int first = t;
+            listResults.add(pool.submit(new Callable<Accumulator>()
+            {
+                public Accumulator call()
+                {
+                    Accumulator acc = createAccumulator();
+                    for (int j = first; j < listJobs.size(); j += nThreads)
+                        listJobs.get(j).run(acc);
+                    return acc;
+                }
+            }));
+        }
+
+        Accumulator total = null;
+        try
+        {
+            for (int t = 0; t < nThreads; ++t)
+            {
+                Accumulator acc = listResults.get(t).get();
+                listResults.set(t, null);
+                if (total == null)
+                    total = acc;
+                else
+                    total.merge(acc);
+            }
+        }
+        catch (InterruptedException ex)
+        {
+            errors.add("interrupted");
+        }
+        catch (ExecutionException ex)
+        {
+            errors.add(String.valueOf(ex.getCause()));
+        }
+        finally
+        {
+            pool.shutdownNow();
+        }
+
+        String lastError = null;
+        for (int j = 0; j < listJobs.size(); ++j)
+        {
+            String msg = listJobs.get(j).error;
+            // a file read in pieces fails once per piece
+            if (msg != null && !msg.equals(lastError))
+                errors.add(msg);
+            if (msg != null)
+                lastError = msg;
+        }
+
+        return total != null ? total : createAccumulator();
+    }
+
+    /**
+     * An input, or a piece of it, read by <code>readAll</code>
+     */
+    private static abstract class Job
+    {
+        File   file;
+
+        /**
+         * The message of the problem found in the input, if any
+         */
+        String error = null;
+
+        Job(File file)
+        {
+            this.file = file;
+        }
+
+        abstract void read(Accumulator acc) throws IOException;
+
+        void run(Accumulator acc)
+        {
+            try
+            {
+                read(acc);
+            }
+            catch (IOException ex)
+            {
+                error = ex.getMessage();
+            }
+            catch (RuntimeException ex)
+            {
+                error = file + ": " + ex;
+            }
+        }
+    }
+
+    /**
+     * Solves the coefficients of every player in every partition having at
+     * least <code>minSamples</code> samples. When the ball coordinate of the
+     * samples does not vary along an axis, the player is given a fixed
+     * coordinate on that axis.
+     */
+    public ArrayList<Fit> fit(Accumulator acc, long minSamples)
+    {
+        ArrayList<Fit> list = new ArrayList<Fit>();
+        double[] s = acc.sums;
+        for (int k = 0; k < formation.getPartitionCount(); ++k)
+        {
+            for (int p = 0; p < 11; ++p)
+            {
+                int i = (k * 11 + p) * Stride;
+                double n = s[i];
+                if (n < Math.max(1, minSamples))
+                    continue;
+
+                double[] x = solve(n, s[i + 1], s[i + 2], s[i + 3], s[i + 4],
+                        s[i + 5]);
+                double[] y = solve(n, s[i + 6], s[i + 7], s[i + 8], s[i + 9],
+                        s[i + 10]);
+                Coefs4d cs = new Coefs4d(x[0], y[0], x[1], y[1]);
+                double rms = Math.sqrt(Math.max(0.0, (x[2] + y[2]) / n));
+                list.add(new Fit(formation.getPartitionName(k), p, (long) n,
+                        cs, rms));
+            }
+        }
+        return list;
+    }
+
+    /**
+     * Solves u = c * b + o by least squares.
+     *
+     * @return c, o, and the sum of the squared residuals
+     */
+    static double[] solve(double n, double sb, double sbb, double su,
+            double sbu, double suu)
+    {
+        double mb = sb / n, mu = su / n;
+        double varB = sbb / n - mb * mb;
+        double covBU = sbu / n - mb * mu;
+        double varU = suu / n - mu * mu;
+
+        // the ball hardly moved along this axis
+        if (varB <= 1e-9 * Math.max(1.0, mb * mb))
+            return new double[] { 0.0, mu, n * varU };
+
+        double c = covBU / varB;
+        double o = mu - c * mb;
+        return new double[] { c, o, n * (varU - c * covBU) };
+    }
+
+    /**
+     * Sets the fitted coefficients in a strategy, in a single bulk update.
+     * The fits of the partitions not in the strategy are ignored.
+     */
+    public static void apply(StrategyData sd, List<Fit> fits)
+    {
+        sd.beginUpdate();
+        try
+        {
+            for (int i = 0; i < fits.size(); ++i)
+            {
+                Fit fit = fits.get(i);
+                if (sd.isRegInPartition(fit.partition))
+                    sd.setCoefForPlayer(fit.player, fit.partition, fit.coefs);
+            }
+        }
+        finally
+        {
+            sd.commitUpdate();
+        }
+    }
+
+    /**
+     * returns a human-readable table of the fits, listing at most the given
+     * number of them
+     */
+    public static String getReport(Accumulator acc, List<Fit> fits,
+            int maxLines)
+    {
+        StringBuilder sb = new StringBuilder();
+        sb.append(acc.getSampleCount()).append(" samples used, ").append(
+                acc.getSkippedCount()).append(" out of the partitions\n");
+        sb.append(fits.size()).append(" players fitted\n\n");
+        sb.append(String.format("%-20s %6s %10s %8s %8s %8s %8s %8s\n",
+                "partition", "player", "samples", "c1", "c2", "o1", "o2",
+                "rms"));
+
+        int n = Math.min(maxLines, fits.size());
+        for (int i = 0; i < n; ++i)
+            sb.append(fits.get(i)).append('\n');
+        if (fits.size() > n)
+            sb.append("... and ").append(fits.size() - n).append(" more\n");
+        return sb.toString();
+    }
+
+    public static void main(String[] args)
+    {
+        String teamName = null;
+        int side = 0;
+        int threads = Runtime.getRuntime().availableProcessors();
+        long minSamples = 10;
+        boolean playOnOnly = false;
+        String outFile = null;
+        String casFile = null;
+        ArrayList<File> listFiles = new ArrayList<File>();
+
+        try
+        {
+            for (int i = 0; i < args.length; ++i)
+            {
+                String arg = args[i];
+                if (arg.equals("-team"))
+                    teamName = args[++i];
+                else if (arg.equals("-side"))
+                {
+                    String s = args[++i];
+                    if (!s.equals("l") && !s.equals("r"))
+                        throw new IllegalArgumentException(s);
+                    side = s.equals("r") ? 1 : 0;
+                }
+                else if (arg.equals("-threads"))
+                    threads = Integer.parseInt(args[++i]);
+                else if (arg.equals("-min"))
+                    minSamples = Long.parseLong(args[++i]);
+                else if (arg.equals("-playon"))
+                    playOnOnly = true;
+                else if (arg.equals("-out"))
+                    outFile = args[++i];
+                else if (arg.startsWith("-"))
+                    throw new IllegalArgumentException(arg);
+                else if (casFile == null)
+                    casFile = arg;
+                else
+                    Util.addFiles(arg, new String[] { "rcg", "rcg.gz",
+                            SampleFilesExt }, listFiles);
+            }
+        }
+        catch (RuntimeException ex)
+        {
+            listFiles.clear();
+        }
+
+        if (casFile == null || listFiles.size() == 0 || threads <= 0)
+        {
+            System.err.println("Usage: CoefsFitter [options] strategy.cas "
+                    + "inputs...");
+            System.err.println("  inputs may be game logs (.rcg, .rcg.gz) or "
+                    + "sample files (." + SampleFilesExt + "),");
+            System.err.println("  directories, or patterns with * and ?");
+            System.err.println("Options:");
+            System.err.println("  -out <file>            where to save the "
+                    + "fitted strategy");
+            System.err.println("  -team <name>           name of our team in "
+                    + "the logs");
+            System.err.println("  -side l|r              our side, if -team "
+                    + "is not given (default: l)");
+            System.err.println("  -playon                use only the play_on "
+                    + "cycles of the logs");
+            System.err.println("  -min <n>               least number of "
+                    + "samples to fit a player (default: 10)");
+            System.err.println("  -threads <n>           number of threads");
+            System.exit(2);
+        }
+
+        StrategyData sd = new StrategyData();
+        try
+        {
+            CASDiagnostics diag = sd.readFromFile(casFile);
+            if (!diag.isEmpty())
+                System.err.println(casFile + ": " + diag.getSummary(10));
+        }
+        catch (IOException ex)
+        {
+            System.err.println(casFile + ": " + ex.getMessage());
+            System.exit(1);
+        }
+
+        CompiledFormation formation = new CompiledFormation(sd);
+        CoefsFitter fitter = teamName != null ? new CoefsFitter(formation,
+                teamName) : new CoefsFitter(formation, side);
+        fitter.setPlayOnOnly(playOnOnly);
+
+        ArrayList<String> errors = new ArrayList<String>();
+        Accumulator acc = fitter.readAll(listFiles, threads, errors);
+        for (int i = 0; i < errors.size(); ++i)
+            System.err.println(errors.get(i));
+
+        ArrayList<Fit> fits = fitter.fit(acc, minSamples);
+        System.out.print(getReport(acc, fits, 100));
+
+        if (outFile != null)
+        {
+            apply(sd, fits);
+            try
+            {
+                sd.saveToFile(outFile);
+            }
+            catch (IOException ex)
+            {
+                System.err.println(outFile + ": " + ex.getMessage());
+                System.exit(1);
+            }
+        }
+        System.exit(errors.size() == 0 ? 0 : 1);
+    }
+}
@@ -0,0 +1,197 @@
+/*
+ This file is part of Coach Assistant
+ Copyright (C) 2004-2006 Sina Iravanian  <sina_iravanian@yahoo.com>
+
+ This program is free software; you can redistribute it and/or modify
+ it under the terms of the GNU General Public License as published by
+ the Free Software Foundation; version 2 of the License.
+
+ This program is distributed in the hope that it will be useful,
+ but WITHOUT ANY WARRANTY; without even the implied warranty of
+ MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ GNU General Public License for more details.
+
+ You should have received a copy of the GNU General Public License
+ along with this program; if not, write to the Free Software
+ Foundation, Inc., 675 Mass Ave, Cambridge, MA 02139, USA.
+ */
+
+package coachassistant;
+
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.HashMap;
+
+/**
+ * A dense store for the coefficients of all the 11 players in all the
+ * partitions.
+ * <p>
+ * Partition names are interned to int ids in the order they are first seen.
+ * The coefficients are then kept in flat arrays indexed by
+ * <code>id * 11 + player</code>, and a bit-set tells whether a player has a
+ * positioning defined for a partition.
+ * <p>
+ * See also <code>Coefs4d</code> for the meaning of c1, c2, o1, and o2.
+ */
+class CoefsStore
+{
+    /**
+     * A map from a partition name to its id
+     */
+    private HashMap<String, Integer> mapName2Id = new HashMap<String, Integer>();
+
+    /**
+     * The partition names, indexed by their ids
+     */
+    private ArrayList<String>        listNames  = new ArrayList<String>();
+
+    private double[]                 c1, c2, o1, o2;
+
+    /**
+     * bit <code>id * 11 + player</code> is set if the player has coefficients
+     * for the partition
+     */
+    private BitSet                   present    = new BitSet();
+
+    public CoefsStore()
+    {
+        allocate(16);
+    }
+
+    private void allocate(int nParts)
+    {
+        c1 = new double[nParts * 11];
+        c2 = new double[nParts * 11];
+        o1 = new double[nParts * 11];
+        o2 = new double[nParts * 11];
+    }
+
+    private static double[] grow(double[] arr, int size)
+    {
+        double[] res = new double[size];
+        System.arraycopy(arr, 0, res, 0, arr.length);
+        return res;
+    }
+
+    /**
+     * returns the id of a partition name, or -1 if it has never been used in
+     * the store.
+     */
+    public int getId(String regName)
+    {
+        Integer id = mapName2Id.get(regName);
+        return id == null ? -1 : id.intValue();
+    }
+
+    /**
+     * returns the id of a partition name, interning it if needed.
+     */
+    int intern(String regName)
+    {
+        Integer id = mapName2Id.get(regName);
+        if (id != null)
+            return id.intValue();
+
+        int n = listNames.size();
+        if ((n + 1) * 11 > c1.length)
+        {
+            int size = c1.length * 2;
+            c1 = grow(c1, size);
+            c2 = grow(c2, size);
+            o1 = grow(o1, size);
+            o2 = grow(o2, size);
+        }
+
+        mapName2Id.put(regName, Integer.valueOf(n));
+        listNames.add(regName);
+        return n;
+    }
+
+    /**
+     * returns the number of interned partition names. The valid ids are from
+     * 0 to this number - 1.
+     */
+    public int getIdCount()
+    {
+        return listNames.size();
+    }
+
+    /**
+     * returns the partition name of an id
+     */
+    public String getName(int id)
+    {
+        return listNames.get(id);
+    }
+
+    public void set(int player, String regName, Coefs4d cs)
+    {
+        int i = intern(regName) * 11 + player;
+        c1[i] = cs.c1;
+        c2[i] = cs.c2;
+        o1[i] = cs.o1;
+        o2[i] = cs.o2;
+        present.set(i);
+    }
+
+    /**
+     * Sets the coefficients of a player for a partition given by its id, as
+     * returned by <code>intern</code>.
+     */
+    public void set(int player, int id, Coefs4d cs)
+    {
+        int i = id * 11 + player;
+        c1[i] = cs.c1;
+        c2[i] = cs.c2;
+        o1[i] = cs.o1;
+        o2[i] = cs.o2;
+        present.set(i);
+    }
+
+    public boolean exists(int player, String regName)
+    {
+        int id = getId(regName);
+        return id >= 0 && present.get(id * 11 + player);
+    }
+
+    public boolean exists(int player, int id)
+    {
+        return present.get(id * 11 + player);
+    }
+
+    /**
+     * returns a new <code>Coefs4d</code> instance holding the coefficients
+     * of a player for a partition, or null if there is none.
+     */
+    public Coefs4d get(int player, String regName)
+    {
+        int id = getId(regName);
+        if (id < 0 || !present.get(id * 11 + player))
+            return null;
+
+        int i = id * 11 + player;
+        return new Coefs4d(c1[i], c2[i], o1[i], o2[i]);
+    }
+
+    /**
+     * Copies the coefficients of a player for a partition into an existing
+     * <code>Coefs4d</code> instance. The player must have coefficients for the
+     * partition.
+     */
+    public void get(int player, int id, Coefs4d cs)
+    {
+        int i = id * 11 + player;
+        cs.c1 = c1[i];
+        cs.c2 = c2[i];
+        cs.o1 = o1[i];
+        cs.o2 = o2[i];
+    }
+
+    public void clear()
+    {
+        mapName2Id.clear();
+        listNames.clear();
+        present.clear();
+        allocate(16);
+    }
+}
@@ -0,0 +1,477 @@
+/*
+ This file is part of Coach Assistant
+ Copyright (C) 2004-2006 Sina Iravanian  <sina_iravanian@yahoo.com>
+
+ This program is free software; you can redistribute it and/or modify
+ it under the terms of the GNU General Public License as published by
+ the Free Software Foundation; version 2 of the License.
+
+ This program is distributed in the hope that it will be useful,
+ but WITHOUT ANY WARRANTY; without even the implied warranty of
+ MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ GNU General Public License for more details.
+
+ You should have received a copy of the GNU General Public License
+ along with this program; if not, write to the Free Software
+ Foundation, Inc., 675 Mass Ave, Cambridge, MA 02139, USA.
+ */
+
+package coachassistant;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+
+/**
+ * A snapshot of the positionings of a strategy, compiled for answering "where
+ * should the team be when the ball is here" in constant time.
+ * <p>
+ * The whole area of the pitch is rasterized into a grid of square cells. Each
+ * cell refers to a <i>group</i>, the ordered list of the partitions touching
+ * that cell, and for each group it is known in advance which partition every
+ * player uses. So for a cell lying completely inside all of its partitions,
+ * positioning the team is a table lookup followed by the formulas of
+ * <code>Coefs4d</code>. Cells crossed by the border of a partition are marked
+ * as mixed, and the few partitions of their group are tested exactly, so the
+ * result never depends on the resolution of the grid.
+ * <p>
+ * When partitions overlap, the one coming first in the partition order of the
+ * <code>StrategyData</code> wins, as in <code>Pitch</code>.
+ * <p>
+ * All the coordinates used here are in the field coordination. The snapshot
+ * does not change when the strategy changes, so it can be used from several
+ * threads at once; compile a new one instead.
+ */
+public class CompiledFormation
+{
+    /**
+     * Default size of the cells, in meters
+     */
+    public static final double DefaultResolution = 0.1;
+
+    /*
+     * The grid
+     */
+    private double             resolution;
+    private double             originX, originY;
+    private int                cols, rows;
+
+    /**
+     * For each cell, the index of its group shifted left by one, or-ed with 1
+     * if the cell is mixed.
+     */
+    private int[]              cells;
+
+    /*
+     * The partitions, in their order of precedence
+     */
+    private String[]           partNames;
+    private double[]           px1, py1, px2, py2;
+
+    /*
+     * The coefficients, indexed by partition * 11 + player
+     */
+    private double[]           c1, c2, o1, o2;
+    private boolean[]          has;
+
+    /**
+     * The partitions of each group, in their order of precedence
+     */
+    private int[][]            groupParts;
+
+    /**
+     * The partition used by each player in each group (indexed by
+     * group * 11 + player), assuming the point is inside all the partitions of
+     * the group; -1 if none.
+     */
+    private int[]              groupResolved;
+
+    /**
+     * Compiles the strategy with the default resolution
+     */
+    public CompiledFormation(StrategyData sd)
+    {
+        this(sd, DefaultResolution);
+    }
+
+    /**
+     * Compiles the strategy.
+     *
+     * @param sd
+     *            the strategy
+     * @param resolution
+     *            size of the grid cells in meters
+     */
+    public CompiledFormation(StrategyData sd, double resolution)
+    {
+        this.resolution = resolution;
+        originX = -Params.dHalfWidth;
+        originY = -Params.dHalfHeight;
+        cols = (int) Math.ceil(2 * Params.dHalfWidth / resolution);
+        rows = (int) Math.ceil(2 * Params.dHalfHeight / resolution);
+
+        readStrategy(sd);
+        rasterize();
+        resolveGroups();
+    }
+
+    /**
+     * Copies the partitions and the coefficients of the strategy
+     */
+    private void readStrategy(StrategyData sd)
+    {
+        ArrayList<String> list = new ArrayList<String>();
+        Iterator<String> it = sd.getPartitionNamesIterator();
+        while (it.hasNext())
+        {
+            String name = it.next();
+            if (sd.regionExists(name))
+                list.add(name);
+        }
+
+        int n = list.size();
+        partNames = list.toArray(new String[n]);
+        px1 = new double[n];
+        py1 = new double[n];
+        px2 = new double[n];
+        py2 = new double[n];
+        c1 = new double[n * 11];
+        c2 = new double[n * 11];
+        o1 = new double[n * 11];
+        o2 = new double[n * 11];
+        has = new boolean[n * 11];
+
+        CoefsStore store = sd.getCoefsStore();
+        Coefs4d cs = new Coefs4d(0.0, 0.0, 0.0, 0.0);
+        for (int k = 0; k < n; ++k)
+        {
+            Rect4d rc = Util.FieldRect(sd.getRectForRegion(partNames[k]));
+            px1[k] = rc.x1;
+            py1[k] = rc.y1;
+            px2[k] = rc.x2;
+            py2[k] = rc.y2;
+
+            int id = store.getId(partNames[k]);
+            for (int p = 0; id >= 0 && p < 11; ++p)
+            {
+                if (store.exists(p, id))
+                {
+                    int i = k * 11 + p;
+                    store.get(p, id, cs);
+                    c1[i] = cs.c1;
+                    c2[i] = cs.c2;
+                    o1[i] = cs.o1;
+                    o2[i] = cs.o2;
+                    has[i] = true;
+                }
+            }
+        }
+    }
+
+    /**
+     * Registers every partition in the cells it touches, building the groups
+     * on the way.
+     */
+    private void rasterize()
+    {
+        cells = new int[cols * rows];
+
+        // group 0 is the empty group
+        ArrayList<int[]> listGroups = new ArrayList<int[]>();
+        listGroups.add(new int[0]);
+
+        // a map from (group, partition) to the group made by appending the
+        // partition to the group
+        HashMap<Long, Integer> mapNext = new HashMap<Long, Integer>();
+
+        double eps = resolution * 1e-9;
+        for (int k = 0; k < partNames.length; ++k)
+        {
+            int cx1 = col(px1[k]), cx2 = col(px2[k]);
+            int cy1 = row(py1[k]), cy2 = row(py2[k]);
+
+            // neighbour cells mostly share their groups, so remember the last
+            // transition
+            int lastFrom = -1, lastTo = -1;
+            for (int r = cy1; r <= cy2; ++r)
+            {
+                double y0 = originY + r * resolution;
+                boolean insideY = py1[k] <= y0 - eps
+                        && y0 + resolution + eps <= py2[k];
+                for (int c = cx1; c <= cx2; ++c)
+                {
+                    double x0 = originX + c * resolution;
+                    boolean inside = insideY && px1[k] <= x0 - eps
+                            && x0 + resolution + eps <= px2[k];
+
+                    int i = r * cols + c;
+                    int g = cells[i] >>> 1;
+                    if (g != lastFrom)
+                    {
+                        Long key = Long.valueOf(((long) g << 32) | k);
+                        Integer next = mapNext.get(key);
+                        if (next == null)
+                        {
+                            int[] parts = listGroups.get(g);
+                            int[] grown = new int[parts.length + 1];
+                            System.arraycopy(parts, 0, grown, 0, parts.length);
+                            grown[parts.length] = k;
+                            next = Integer.valueOf(listGroups.size());
+                            listGroups.add(grown);
+                            mapNext.put(key, next);
+                        }
+                        lastFrom = g;
+                        lastTo = next.intValue();
+                    }
+
+                    cells[i] = (lastTo << 1) | (cells[i] & 1)
+                            | (inside ? 0 : 1);
+                }
+            }
+        }
+
+        groupParts = listGroups.toArray(new int[listGroups.size()][]);
+    }
+
+    /**
+     * Finds the partition of each player in each group
+     */
+    private void resolveGroups()
+    {
+        groupResolved = new int[groupParts.length * 11];
+        for (int g = 0; g < groupParts.length; ++g)
+        {
+            int[] parts = groupParts[g];
+            for (int p = 0; p < 11; ++p)
+            {
+                int res = -1;
+                for (int j = 0; j < parts.length; ++j)
+                {
+                    if (has[parts[j] * 11 + p])
+                    {
+                        res = parts[j];
+                        break;
+                    }
+                }
+                groupResolved[g * 11 + p] = res;
+            }
+        }
+    }
+
+    private int col(double x)
+    {
+        int c = (int) Math.floor((x - originX) / resolution);
+        if (c < 0)
+            return 0;
+        if (c >= cols)
+            return cols - 1;
+        return c;
+    }
+
+    private int row(double y)
+    {
+        int r = (int) Math.floor((y - originY) / resolution);
+        if (r < 0)
+            return 0;
+        if (r >= rows)
+            return rows - 1;
+        return r;
+    }
+
+    /**
+     * returns the grid cell containing a point, or -1 if the point is outside
+     * of the grid.
+     */
+    private int cellOf(double x, double y)
+    {
+        double fc = Math.floor((x - originX) / resolution);
+        double fr = Math.floor((y - originY) / resolution);
+        if (fc < 0 || fr < 0 || fc >= cols || fr >= rows)
+            return -1;
+        return (int) fr * cols + (int) fc;
+    }
+
+    private boolean contains(int k, double x, double y)
+    {
+        return px1[k] <= x && x <= px2[k] && py1[k] <= y && y <= py2[k];
+    }
+
+    /**
+     * Calculates the positions of all the players, having the position of the
+     * ball.
+     *
+     * @param x
+     *            x of the ball in the field coordination
+     * @param y
+     *            y of the ball in the field coordination
+     * @param out
+     *            an array of 22 doubles; the position of player i is stored in
+     *            <code>out[2 * i]</code> and <code>out[2 * i + 1]</code>.
+     *            Both are set to <code>Params.IllegalDouble</code> if no
+     *            positioning is assigned to the player for that ball position.
+     * @return the number of players positioned
+     */
+    public int evaluate(double x, double y, double[] out)
+    {
+        int cell = cellOf(x, y);
+        if (cell < 0)
+            return evaluateExact(null, x, y, out);
+
+        int v = cells[cell];
+        int g = v >>> 1;
+        if ((v & 1) != 0)
+            return evaluateExact(groupParts[g], x, y, out);
+
+        int n = 0;
+        int base = g * 11;
+        for (int p = 0; p < 11; ++p)
+        {
+            int k = groupResolved[base + p];
+            if (k >= 0)
+            {
+                int i = k * 11 + p;
+                out[2 * p] = x * c1[i] + o1[i];
+                out[2 * p + 1] = y * c2[i] + o2[i];
+                ++n;
+            }
+            else
+            {
+                out[2 * p] = out[2 * p + 1] = Params.IllegalDouble;
+            }
+        }
+        return n;
+    }
+
+    /**
+     * Positions the players by testing the partitions one by one.
+     *
+     * @param parts
+     *            the partitions to be tested, or null for all of them
+     */
+    private int evaluateExact(int[] parts, double x, double y, double[] out)
+    {
+        for (int p = 0; p < 22; ++p)
+            out[p] = Params.IllegalDouble;
+
+        // bit p is set when player p is positioned
+        int done = 0;
+        int n = 0;
+        int count = parts == null ? partNames.length : parts.length;
+        for (int j = 0; j < count && n < 11; ++j)
+        {
+            int k = parts == null ? j : parts[j];
+            if (!contains(k, x, y))
+                continue;
+
+            for (int p = 0; p < 11; ++p)
+            {
+                int i = k * 11 + p;
+                if (has[i] && (done & (1 << p)) == 0)
+                {
+                    out[2 * p] = x * c1[i] + o1[i];
+                    out[2 * p + 1] = y * c2[i] + o2[i];
+                    done |= 1 << p;
+                    ++n;
+                }
+            }
+        }
+        return n;
+    }
+
+    /**
+     * Calculates the positions of all the players for a batch of ball
+     * positions. The results are stored player by player: the position of
+     * player p for the ball position i is
+     * <code>(outXs[p * n + i], outYs[p * n + i])</code>, so each of the
+     * output arrays must have room for <code>11 * n</code> doubles.
+     * Unpositioned players get <code>Params.IllegalDouble</code>, as in
+     * <code>evaluate(double, double, double[])</code>.
+     *
+     * @param xs
+     *            x of the ball positions in the field coordination
+     * @param ys
+     *            y of the ball positions in the field coordination
+     * @param n
+     *            number of the ball positions
+     */
+    public void evaluate(double[] xs, double[] ys, int n, double[] outXs,
+            double[] outYs)
+    {
+        double[] out = null;
+        for (int i = 0; i < n; ++i)
+        {
+            double x = xs[i], y = ys[i];
+            int cell = cellOf(x, y);
+            int v = cell < 0 ? 1 : cells[cell];
+            if ((v & 1) != 0)
+            {
+                // rare: the exact test
+                if (out == null)
+                    out = new double[22];
+                evaluateExact(cell < 0 ? null : groupParts[v >>> 1], x, y,
+                        out);
+                for (int p = 0; p < 11; ++p)
+                {
+                    outXs[p * n + i] = out[2 * p];
+                    outYs[p * n + i] = out[2 * p + 1];
+                }
+                continue;
+            }
+
+            int base = (v >>> 1) * 11;
+            for (int p = 0, dst = i; p < 11; ++p, dst += n)
+            {
+                int k = groupResolved[base + p];
+                if (k >= 0)
+                {
+                    int j = k * 11 + p;
+                    outXs[dst] = x * c1[j] + o1[j];
+                    outYs[dst] = y * c2[j] + o2[j];
+                }
+                else
+                {
+                    outXs[dst] = outYs[dst] = Params.IllegalDouble;
+                }
+            }
+        }
+    }
+
+    /**
+     * returns the index of the first partition containing a point, or -1 if
+     * there's no such partition.
+     *
+     * @param x
+     *            x of the point in the field coordination
+     * @param y
+     *            y of the point in the field coordination
+     */
+    public int getPartitionAt(double x, double y)
+    {
+        int cell = cellOf(x, y);
+        int[] parts = cell < 0 ? null : groupParts[cells[cell] >>> 1];
+        int count = parts == null ? partNames.length : parts.length;
+        for (int j = 0; j < count; ++j)
+        {
+            int k = parts == null ? j : parts[j];
+            if (contains(k, x, y))
+                return k;
+        }
+        return -1;
+    }
+
+    /**
+     * returns the number of the partitions in the snapshot
+     */
+    public int getPartitionCount()
+    {
+        return partNames.length;
+    }
+
+    /**
+     * returns the name of a partition, having its index
+     */
+    public String getPartitionName(int k)
+    {
+        return partNames[k];
+    }
+}
@@ -0,0 +1,270 @@
+/*
+ This file is part of Coach Assistant
+ Copyright (C) 2004-2006 Sina Iravanian  <sina_iravanian@yahoo.com>
+
+ This program is free software; you can redistribute it and/or modify
+ it under the terms of the GNU General Public License as published by
+ the Free Software Foundation; version 2 of the License.
+
+ This program is distributed in the hope that it will be useful,
+ but WITHOUT ANY WARRANTY; without even the implied warranty of
+ MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ GNU General Public License for more details.
+
+ You should have received a copy of the GNU General Public License
+ along with this program; if not, write to the Free Software
+ Foundation, Inc., 675 Mass Ave, Cambridge, MA 02139, USA.
+ */
+
+package coachassistant;
+
+import java.awt.image.BufferedImage;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+
+import javax.swing.SwingUtilities;
+
+/**
+ * For every cell of the field, the number of our players within
+ * <code>Params.CoverageRadius</code> of it, averaged over the positions of
+ * the ball.
+ * <p>
+ * The map is computed on a background thread, in passes sampling the ball
+ * positions more and more densely, and the result of each pass is shown as
+ * soon as it is ready. A change of the strategy cancels the computation; call
+ * <code>invalidate</code> and then <code>compute</code> again. Except for the
+ * computation itself, everything runs on the event dispatch thread.
+ */
+class CoverageMap
+{
+    /**
+     * The thread the maps are computed on
+     */
+    private static ExecutorService executor   = createExecutor();
+
+    private StrategyData           strategyData;
+
+    /**
+     * Is run on the event dispatch thread whenever a pass is finished
+     */
+    private Runnable               onUpdate;
+
+    /*
+     * The grid of the cells, covering the field
+     */
+    private int                    cols, rows;
+    private double                 originX, originY;
+
+    /**
+     * Incremented whenever the strategy changes; a computation stops as soon
+     * as it sees the generation is not its own.
+     */
+    private volatile int           generation = 0;
+
+    /**
+     * The generation for which a computation has been started, or -1
+     */
+    private int                    started    = -1;
+
+    /**
+     * The average number of the players covering each cell, or null if no
+     * pass is finished yet
+     */
+    private float[]                values     = null;
+
+    /**
+     * The map drawn from <code>values</code>, one pixel per cell
+     */
+    private BufferedImage          image      = null;
+
+    /**
+     * Creates a single, low-priority daemon thread for the computations
+     */
+    private static ExecutorService createExecutor()
+    {
+        return Executors.newSingleThreadExecutor(new ThreadFactory()
+        {
+            public Thread newThread(Runnable r)
+            {
+                Thread t = new Thread(r, "CoverageMap");
+                t.setDaemon(true);
+                t.setPriority(Thread.MIN_PRIORITY);
+                return t;
+            }
+        });
+    }
+
+    public CoverageMap(StrategyData sd, Runnable onUpdate)
+    {
+        strategyData = sd;
+        this.onUpdate = onUpdate;
+
+        originX = -Params.dFieldWidth;
+        originY = -Params.dFieldHeight;
+        cols = (int) Math.ceil(2 * Params.dFieldWidth / Params.CoverageCell);
+        rows = (int) Math.ceil(2 * Params.dFieldHeight / Params.CoverageCell);
+    }
+
+    /**
+     * Throws away the map, since the strategy has changed.
+     */
+    public void invalidate()
+    {
+        ++generation;
+        values = null;
+        image = null;
+    }
+
+    /**
+     * Starts computing the map in the background, if it is not already
+     * computed or being computed.
+     */
+    public void compute()
+    {
+        if (started == generation)
+            return;
+
+        final int gen = generation;
+        started = gen;
+
+        // the strategy may only be read on this thread; the compiled
+        // formation is a snapshot that the background thread can use
+        final CompiledFormation formation = new CompiledFormation(
+                strategyData, Params.CoverageCell / 2);
+        executor.execute(new Runnable()
+        {
+            public void run()
+            {
+                computePasses(formation, gen);
+            }
+        });
+    }
+
+    /**
+     * returns the map as an image having a pixel per cell, with the top-left
+     * pixel at the top-left corner of the field; or null if no pass is
+     * finished yet.
+     */
+    public BufferedImage getImage()
+    {
+        if (image == null && values != null)
+            image = createImage(values);
+        return image;
+    }
+
+    private void computePasses(CompiledFormation formation, int gen)
+    {
+        double[] sum = new double[cols * rows];
+        long samples = 0;
+        double[] targets = new double[22];
+
+        double step = Params.CoverageStep;
+        int nx = (int) Math.floor(2 * Params.dFieldWidth / step);
+        int ny = (int) Math.floor(2 * Params.dFieldHeight / step);
+
+        for (int pass = 0; pass < Params.CoveragePasses; ++pass)
+        {
+            // the distance of the samples of this pass, in steps
+            int k = 1 << (Params.CoveragePasses - 1 - pass);
+            for (int iy = 0; iy <= ny; iy += k)
+            {
+                if (gen != generation)
+                    return;
+
+                for (int ix = 0; ix <= nx; ix += k)
+                {
+                    // sampled by the previous passes
+                    if (pass > 0 && ix % (2 * k) == 0 && iy % (2 * k) == 0)
+                        continue;
+
+                    formation.evaluate(originX + ix * step, originY + iy
+                            * step, targets);
+                    ++samples;
+                    for (int p = 0; p < 11; ++p)
+                    {
+                        if (targets[2 * p] != Params.IllegalDouble)
+                            cover(sum, targets[2 * p], targets[2 * p + 1]);
+                    }
+                }
+            }
+
+            publish(sum, samples, gen);
+        }
+    }
+
+    /**
+     * Adds one to the cells covered by a player
+     */
+    private void cover(double[] sum, double x, double y)
+    {
+        double rad = Params.CoverageRadius;
+        double cell = Params.CoverageCell;
+        int c1 = Math.max(0, (int) Math.floor((x - rad - originX) / cell));
+        int c2 = Math.min(cols - 1, (int) Math.floor((x + rad - originX)
+                / cell));
+        int r1 = Math.max(0, (int) Math.floor((y - rad - originY) / cell));
+        int r2 = Math.min(rows - 1, (int) Math.floor((y + rad - originY)
+                / cell));
+
+        for (int r = r1; r <= r2; ++r)
+        {
+            double dy = originY + (r + 0.5) * cell - y;
+            for (int c = c1; c <= c2; ++c)
+            {
+                double dx = originX + (c + 0.5) * cell - x;
+                if (dx * dx + dy * dy <= rad * rad)
+                    sum[r * cols + c] += 1.0;
+            }
+        }
+    }
+
+    /**
+     * Hands the averages of a finished pass to the event dispatch thread
+     */
+    private void publish(double[] sum, long samples, final int gen)
+    {
+        final float[] avg = new float[sum.length];
+        for (int i = 0; i < sum.length; ++i)
+            avg[i] = (float) (sum[i] / samples);
+
+        SwingUtilities.invokeLater(new Runnable()
+        {
+            public void run()
+            {
+                if (gen != generation)
+                    return;
+                values = avg;
+                image = null;
+                onUpdate.run();
+            }
+        });
+    }
+
+    private BufferedImage createImage(float[] v)
+    {
+        float max = 0.0f;
+        for (int i = 0; i < v.length; ++i)
+            max = Math.max(max, v[i]);
+
+        int covered = Params.ColorCovered.getRGB() & 0xffffff;
+        int uncovered = Params.ColorUncovered.getRGB() & 0xffffff;
+
+        BufferedImage img = new BufferedImage(cols, rows,
+                BufferedImage.TYPE_INT_ARGB);
+        for (int r = 0; r < rows; ++r)
+        {
+            for (int c = 0; c < cols; ++c)
+            {
+                float f = v[r * cols + c];
+                int argb;
+                if (f == 0.0f)
+                    argb = (128 << 24) | uncovered;
+                else
+                    argb = ((int) (24 + 152 * f / max) << 24) | covered;
+                img.setRGB(c, r, argb);
+            }
+        }
+        return img;
+    }
+}
@@ -37,7 +37,8 @@ import javax.swing.JTextField;
 
 /**
  * This dialog enables the user to create regions using numeric values, remove
- * regions, and add existing regions to partitions.
+ * regions, add existing regions to partitions, and change the order of the
+ * partitions (the first of overlapping partitions wins).
  * 
  * @author Sina
  * 
@@ -50,6 +51,8 @@ public class DlgPartitions extends JDialog implements ActionListener
     JButton                   btnDelReg        = new JButton("Delete");
     JButton                   btnAddToPart     = new JButton(">");
     JButton                   btnDelFromPart   = new JButton("<");
+    JButton                   btnPartUp        = new JButton("Up");
+    JButton                   btnPartDown      = new JButton("Down");
     JLabel                    lblRegs          = new JLabel("All the regions");
     JLabel                    lblParts         = new JLabel("Partitions");
 
@@ -109,7 +112,7 @@ public class DlgPartitions extends JDialog implements ActionListener
         panelWest.add(txtName);
 
         JPanel panelCenter = new JPanel(null);
-        panelCenter.setPreferredSize(new Dimension(560, listHeight + 50));
+        panelCenter.setPreferredSize(new Dimension(560, listHeight + 80));
 
         btnDelReg.setBounds(30, 100, 80, 25);
         btnCreateReg.setBounds(30, 150, 80, 25);
@@ -124,6 +127,8 @@ public class DlgPartitions extends JDialog implements ActionListener
         lblParts.setBounds(390, 10, listWidth, 20);
         JScrollPane scpListParts = new JScrollPane(listPartitions);
         scpListParts.setBounds(390, 30, listWidth, listHeight);
+        btnPartUp.setBounds(390, listHeight + 40, 70, 25);
+        btnPartDown.setBounds(470, listHeight + 40, 70, 25);
 
         panelCenter.add(btnCreateReg);
         panelCenter.add(btnDelReg);
@@ -133,6 +138,8 @@ public class DlgPartitions extends JDialog implements ActionListener
         panelCenter.add(btnDelFromPart);
         panelCenter.add(lblParts);
         panelCenter.add(scpListParts);
+        panelCenter.add(btnPartUp);
+        panelCenter.add(btnPartDown);
 
         add(panelWest, BorderLayout.WEST);
         add(panelCenter, BorderLayout.CENTER);
@@ -141,6 +148,8 @@ public class DlgPartitions extends JDialog implements ActionListener
         btnCreateReg.addActionListener(this);
         btnDelFromPart.addActionListener(this);
         btnDelReg.addActionListener(this);
+        btnPartUp.addActionListener(this);
+        btnPartDown.addActionListener(this);
 
         fillRegions();
         fillPartitions();
@@ -183,11 +192,12 @@ public class DlgPartitions extends JDialog implements ActionListener
                 {
                     name = (String) modelListRegs.getElementAt(is[i]);
                     if (!strategyData.isRegInPartition(name))
-                    {
                         strategyData.addRegToPartition(name);
-                        modelListParts.addElement(name);
-                    }
                 }
+
+                // the new partitions take their place in the order
+                modelListParts.clear();
+                fillPartitions();
             }
         }
         else if (sender == btnDelFromPart)
@@ -204,6 +214,25 @@ public class DlgPartitions extends JDialog implements ActionListener
                 }
             }
         }
+        else if (sender == btnPartUp || sender == btnPartDown)
+        {
+            int i = listPartitions.getSelectedIndex();
+            if (i >= 0)
+            {
+                String name = (String) modelListParts.getElementAt(i);
+                boolean up = sender == btnPartUp;
+                boolean moved = up ? strategyData.movePartitionUp(name)
+                        : strategyData.movePartitionDown(name);
+                if (moved)
+                {
+                    int j = up ? i - 1 : i + 1;
+                    modelListParts.clear();
+                    fillPartitions();
+                    listPartitions.setSelectedIndex(j);
+                    listPartitions.ensureIndexIsVisible(j);
+                }
+            }
+        }
         else if (sender == btnDelReg)
         {
             int[] is = listRegions.getSelectedIndices();
@@ -100,7 +100,7 @@ public class FileChooser
                 try
                 {
                     String name = fc.getSelectedFile().getCanonicalPath();
-                    if (!name.endsWith(filter.ext))
+                    if (!filter.hasExt(name))
                         name += filter.ext;
 
                     if (new File(name).exists())
@@ -148,11 +148,13 @@ public class FileChooser
     }
 
     /**
-     * Sets the .cas filter
+     * Sets the .cas filter, which accepts the binary .casb files as well
      */
     public void setCASFilter()
     {
-        setFilter("." + Params.AppFilesExt, "Coach Assistant Strategy (*.cas)");
+        filter.setFilter(new String[] { "." + Params.AppFilesExt,
+                "." + Params.BinaryFilesExt },
+                "Coach Assistant Strategy (*.cas, *.casb)");
     }
 }
 
@@ -164,8 +166,13 @@ public class FileChooser
  */
 class Filter extends FileFilter
 {
-    public String ext = ".txt";
-    public String des = "Text files (*.txt)";
+    public String   ext  = ".txt";
+    public String   des  = "Text files (*.txt)";
+
+    /**
+     * All the extensions accepted, ext being the first one
+     */
+    public String[] exts = { ext };
 
     public Filter()
     {
@@ -173,26 +180,47 @@ class Filter extends FileFilter
 
     public Filter(String ext, String des)
     {
-        this.ext = ext;
-        this.des = des;
+        setFilter(ext, des);
     }
 
     public void setFilter(String ext, String des)
     {
-        this.ext = ext;
+        setFilter(new String[] { ext }, des);
+    }
+
+    /**
+     * Sets a filter accepting several extensions, the first of which is added
+     * to the names of the files saved without any of them
+     */
+    public void setFilter(String[] exts, String des)
+    {
+        this.ext = exts[0];
+        this.exts = exts;
         this.des = des;
     }
 
+    /**
+     * returns true if a file name ends with one of the extensions
+     */
+    public boolean hasExt(String name)
+    {
+        name = name.toLowerCase();
+        for (int i = 0; i < exts.length; ++i)
+            if (name.endsWith(exts[i].toLowerCase()))
+                return true;
+        return false;
+    }
+
     /**
      * Causes to accept only directories and files ending with the specified
-     * extension
+     * extensions
      */
     @Override
     public boolean accept(File f)
     {
         if (f.isDirectory())
             return true;
-        return f.getName().toLowerCase().endsWith(ext.toLowerCase());
+        return hasExt(f.getName());
     }
 
     @Override
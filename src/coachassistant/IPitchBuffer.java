@@ -0,0 +1,68 @@
+/*
+ This file is part of Coach Assistant
+ Copyright (C) 2004-2006 Sina Iravanian  <sina_iravanian@yahoo.com>
+
+ This program is free software; you can redistribute it and/or modify
+ it under the terms of the GNU General Public License as published by
+ the Free Software Foundation; version 2 of the License.
+
+ This program is distributed in the hope that it will be useful,
+ but WITHOUT ANY WARRANTY; without even the implied warranty of
+ MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ GNU General Public License for more details.
+
+ You should have received a copy of the GNU General Public License
+ along with this program; if not, write to the Free Software
+ Foundation, Inc., 675 Mass Ave, Cambridge, MA 02139, USA.
+ */
+
+package coachassistant;
+
+import java.awt.Component;
+import java.awt.Graphics;
+import java.awt.Rectangle;
+
+/**
+ * An off-screen image used by <code>Pitch</code> for drawing. The buffers
+ * only grow, so resizing the pitch to a smaller size does not create a new
+ * image.
+ * <p>
+ * The contents of a buffer may be lost at any time (e.g. when the display
+ * mode changes), so a drawing must be repeated while
+ * <code>contentsLost</code> returns true.
+ */
+interface IPitchBuffer
+{
+    /**
+     * Makes the buffer ready for drawing, creating or restoring its image if
+     * needed.
+     * 
+     * @param owner
+     *            the component the buffer is shown on
+     * @return true if the previous contents of the buffer are lost and must be
+     *         drawn again
+     */
+    public boolean validate(Component owner, int width, int height);
+
+    /**
+     * returns a new graphics context for drawing on the buffer. The caller
+     * must dispose it.
+     */
+    public Graphics createGraphics();
+
+    /**
+     * Draws an area of the buffer at the same place of <code>g</code>.
+     */
+    public void show(Graphics g, Rectangle area);
+
+    /**
+     * returns true if the contents of the buffer have been lost since the last
+     * <code>validate</code>.
+     */
+    public boolean contentsLost();
+
+    /**
+     * Releases the image of the buffer.
+     */
+    public void dispose();
+}
@@ -0,0 +1,70 @@
+/*
+ This file is part of Coach Assistant
+ Copyright (C) 2004-2006 Sina Iravanian  <sina_iravanian@yahoo.com>
+
+ This program is free software; you can redistribute it and/or modify
+ it under the terms of the GNU General Public License as published by
+ the Free Software Foundation; version 2 of the License.
+
+ This program is distributed in the hope that it will be useful,
+ but WITHOUT ANY WARRANTY; without even the implied warranty of
+ MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ GNU General Public License for more details.
+
+ You should have received a copy of the GNU General Public License
+ along with this program; if not, write to the Free Software
+ Foundation, Inc., 675 Mass Ave, Cambridge, MA 02139, USA.
+ */
+
+package coachassistant;
+
+import java.awt.Component;
+import java.awt.Graphics;
+import java.awt.Image;
+import java.awt.Rectangle;
+
+/**
+ * A pitch buffer on an ordinary image, whose contents are never lost. It is
+ * used when volatile images are not available.
+ */
+class ImagePitchBuffer implements IPitchBuffer
+{
+    private Image image = null;
+    private int   width = 0, height = 0;
+
+    public boolean validate(Component owner, int width, int height)
+    {
+        if (image != null && width <= this.width && height <= this.height)
+            return false;
+
+        dispose();
+        this.width = Math.max(width, this.width);
+        this.height = Math.max(height, this.height);
+        image = owner.createImage(this.width, this.height);
+        return true;
+    }
+
+    public Graphics createGraphics()
+    {
+        return image.getGraphics();
+    }
+
+    public void show(Graphics g, Rectangle area)
+    {
+        int x2 = area.x + area.width, y2 = area.y + area.height;
+        g.drawImage(image, area.x, area.y, x2, y2, area.x, area.y, x2, y2,
+                null);
+    }
+
+    public boolean contentsLost()
+    {
+        return false;
+    }
+
+    public void dispose()
+    {
+        if (image != null)
+            image.flush();
+        image = null;
+    }
+}
@@ -32,6 +32,16 @@ public class Params
      * Extension of the applications' strategy files
      */
     public final static String  AppFilesExt      = "cas";
+    /**
+     * Extension of the strategy files in the binary format (See
+     * <code>CASBinary</code>)
+     */
+    public final static String  BinaryFilesExt   = "casb";
+    /**
+     * Extension added to the name of a strategy file for its journal (See
+     * <code>StrategyJournal</code>)
+     */
+    public final static String  JournalFilesExt  = "journal";
     /**
      * The name of a new file
      */
@@ -61,8 +71,20 @@ public class Params
      */
     public static final boolean ShowXPlayer      = true;
 
+    /**
+     * Draw the pitch through accelerated (volatile) images, if the display
+     * supports them?
+     */
+    public static final boolean AcceleratedPitch = true;
+
     public static final int     PlayerRadius     = 11;
 
+    /**
+     * While moving the ball, the players are positioned at most once in this
+     * many milliseconds (about a frame of the display)
+     */
+    public static final int     BallMoveInterval = 16;
+
     /**
      * A double value for an illegal value
      */
@@ -96,4 +118,29 @@ public class Params
 
     public static final double  dGoalWidth       = 7.0;
     public static final double  dMidRad          = 9.15;
+
+    /**
+     * Size (in meters) of the cells of the coverage map
+     */
+    public static final double  CoverageCell     = 1.0;
+
+    /**
+     * A player covers the cells of the coverage map within this distance (in
+     * meters) of him.
+     */
+    public static final double  CoverageRadius   = 5.0;
+
+    /**
+     * The coverage map is refined in this many passes. The last pass samples
+     * the ball positions every <code>CoverageStep</code> meters, and each
+     * pass before it twice as far apart as the next one.
+     */
+    public static final int     CoveragePasses   = 4;
+    public static final double  CoverageStep     = 1.0;
+
+    /*
+     * The colors of the coverage map
+     */
+    public static final Color   ColorCovered     = Color.BLUE;
+    public static final Color   ColorUncovered   = Color.RED;
 }
@@ -0,0 +1,781 @@
+/*
+ This file is part of Coach Assistant
+ Copyright (C) 2004-2006 Sina Iravanian  <sina_iravanian@yahoo.com>
+
+ This program is free software; you can redistribute it and/or modify
+ it under the terms of the GNU General Public License as published by
+ the Free Software Foundation; version 2 of the License.
+
+ This program is distributed in the hope that it will be useful,
+ but WITHOUT ANY WARRANTY; without even the implied warranty of
+ MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ GNU General Public License for more details.
+
+ You should have received a copy of the GNU General Public License
+ along with this program; if not, write to the Free Software
+ Foundation, Inc., 675 Mass Ave, Cambridge, MA 02139, USA.
+ */
+
+package coachassistant;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Map;
+
+/**
+ * Checks the partitions of a strategy for problems:
+ * <ul>
+ * <li>pairs of partitions that overlap (the one coming first in the partition
+ * order wins in their common area),</li>
+ * <li>areas of the field not covered by any partition (no player is
+ * positioned when the ball is there), and</li>
+ * <li>partitions lacking the coefficients of some players.</li>
+ * </ul>
+ * The overlaps and the gaps are found by sweeping a vertical line over the
+ * partitions, keeping the active ones in segment trees, in
+ * O((n + k) log n) time for n partitions and k results. Partitions touching
+ * only along their borders are not reported as overlapping.
+ * <p>
+ * All the coordinates are in the field coordination. It can be run from the
+ * command line with .cas files as arguments.
+ */
+public class PartitionAnalyzer
+{
+    /**
+     * At most this many overlaps and gaps are kept. The rest are only
+     * counted.
+     */
+    public static final int MaxEntries = 10000;
+
+    /**
+     * Two partitions having a common area
+     */
+    public static class Overlap
+    {
+        /**
+         * The partition coming first in the partition order, which wins in
+         * the common area
+         */
+        public final String first;
+
+        public final String second;
+
+        /**
+         * The common area
+         */
+        public final Rect4d area;
+
+        public Overlap(String first, String second, Rect4d area)
+        {
+            this.first = first;
+            this.second = second;
+            this.area = area;
+        }
+
+        public String toString()
+        {
+            return first + " and " + second + " overlap in " + format(area)
+                    + "; " + first + " wins";
+        }
+    }
+
+    /**
+     * A partition lacking the coefficients of some players
+     */
+    public static class MissingCoefs
+    {
+        public final String partition;
+
+        /**
+         * The 0-based indexes of the players
+         */
+        public final int[]  players;
+
+        public MissingCoefs(String partition, int[] players)
+        {
+            this.partition = partition;
+            this.players = players;
+        }
+
+        public String toString()
+        {
+            StringBuilder sb = new StringBuilder(partition);
+            sb.append(": no coefficients for player");
+            if (players.length > 1)
+                sb.append('s');
+            for (int i = 0; i < players.length; ++i)
+                sb.append(i == 0 ? " " : ", ").append(players[i] + 1);
+            return sb.toString();
+        }
+    }
+
+    /*
+     * The partitions, in their order
+     */
+    private String[]                partNames;
+    private Rect4d[]                partRects;
+
+    private ArrayList<Overlap>      listOverlaps  = new ArrayList<Overlap>();
+    private int                     overlapCount  = 0;
+
+    private ArrayList<Rect4d>       listGaps      = new ArrayList<Rect4d>();
+    private int                     gapCount      = 0;
+    private double                  gapArea       = 0.0;
+
+    private ArrayList<MissingCoefs> listMissing   = new ArrayList<MissingCoefs>();
+
+    /**
+     * The players having no coefficients in any partition
+     */
+    private ArrayList<Integer>      listUnplaced  = new ArrayList<Integer>();
+
+    /**
+     * Analyzes the partitions of a strategy. The strategy is only read while
+     * constructing the analyzer.
+     */
+    public PartitionAnalyzer(StrategyData sd)
+    {
+        ArrayList<String> names = new ArrayList<String>();
+        ArrayList<Rect4d> rects = new ArrayList<Rect4d>();
+        Iterator<String> it = sd.getPartitionNamesIterator();
+        while (it.hasNext())
+        {
+            String name = it.next();
+            if (sd.regionExists(name))
+            {
+                names.add(name);
+                rects.add(Util.FieldRect(sd.getRectForRegion(name)));
+            }
+        }
+        partNames = names.toArray(new String[names.size()]);
+        partRects = rects.toArray(new Rect4d[rects.size()]);
+
+        findMissingCoefs(sd);
+        findOverlaps();
+        findGaps();
+    }
+
+    public ArrayList<Overlap> getOverlaps()
+    {
+        return listOverlaps;
+    }
+
+    /**
+     * returns the number of the overlapping pairs, including the ones not
+     * kept
+     */
+    public int getOverlapCount()
+    {
+        return overlapCount;
+    }
+
+    /**
+     * returns the areas of the field not covered by any partition, as
+     * disjoint rectangles
+     */
+    public ArrayList<Rect4d> getGaps()
+    {
+        return listGaps;
+    }
+
+    /**
+     * returns the number of the gap rectangles, including the ones not kept
+     */
+    public int getGapCount()
+    {
+        return gapCount;
+    }
+
+    /**
+     * returns the total area of the gaps, in square meters
+     */
+    public double getGapArea()
+    {
+        return gapArea;
+    }
+
+    public ArrayList<MissingCoefs> getMissingCoefs()
+    {
+        return listMissing;
+    }
+
+    /**
+     * returns the 0-based indexes of the players having no coefficients in
+     * any partition
+     */
+    public ArrayList<Integer> getUnplacedPlayers()
+    {
+        return listUnplaced;
+    }
+
+    /**
+     * returns true if no problems were found
+     */
+    public boolean isEmpty()
+    {
+        return overlapCount == 0 && gapCount == 0 && listMissing.size() == 0;
+    }
+
+    private void findMissingCoefs(StrategyData sd)
+    {
+        boolean[] placed = new boolean[11];
+        int[] missing = new int[11];
+        for (int k = 0; k < partNames.length; ++k)
+        {
+            int n = 0;
+            for (int p = 0; p < 11; ++p)
+            {
+                if (sd.partitionExistsForPlayer(p, partNames[k]))
+                    placed[p] = true;
+                else
+                    missing[n++] = p;
+            }
+
+            if (n > 0)
+            {
+                int[] players = new int[n];
+                System.arraycopy(missing, 0, players, 0, n);
+                listMissing.add(new MissingCoefs(partNames[k], players));
+            }
+        }
+
+        for (int p = 0; p < 11; ++p)
+        {
+            if (!placed[p])
+                listUnplaced.add(Integer.valueOf(p));
+        }
+    }
+
+    /**
+     * returns the sorted distinct y coordinates of the partitions and the
+     * borders of the field
+     */
+    private double[] getYs()
+    {
+        double[] ys = new double[2 * partRects.length + 2];
+        int n = 0;
+        for (int k = 0; k < partRects.length; ++k)
+        {
+            ys[n++] = partRects[k].y1;
+            ys[n++] = partRects[k].y2;
+        }
+        ys[n++] = -Params.dFieldHeight;
+        ys[n++] = Params.dFieldHeight;
+        Arrays.sort(ys);
+
+        int m = 0;
+        for (int i = 0; i < ys.length; ++i)
+        {
+            if (m == 0 || ys[i] != ys[m - 1])
+                ys[m++] = ys[i];
+        }
+
+        double[] res = new double[m];
+        System.arraycopy(ys, 0, res, 0, m);
+        return res;
+    }
+
+    /**
+     * returns the events of the sweep: each partition having an area starts
+     * at its x1 and ends at its x2. An event is encoded as 2 * partition for
+     * the starts, and 2 * partition + 1 for the ends. At the same x the ends
+     * come first, so touching partitions are not active together.
+     */
+    private Integer[] getEvents()
+    {
+        ArrayList<Integer> list = new ArrayList<Integer>();
+        for (int k = 0; k < partRects.length; ++k)
+        {
+            Rect4d rc = partRects[k];
+            if (rc.x1 < rc.x2 && rc.y1 < rc.y2)
+            {
+                list.add(Integer.valueOf(2 * k));
+                list.add(Integer.valueOf(2 * k + 1));
+            }
+        }
+
+        Integer[] events = list.toArray(new Integer[list.size()]);
+        Arrays.sort(events, new Comparator<Integer>()
+        {
+            public int compare(Integer a, Integer b)
+            {
+                int ea = a.intValue(), eb = b.intValue();
+                double xa = eventX(ea), xb = eventX(eb);
+                if (xa != xb)
+                    return xa < xb ? -1 : 1;
+                // ends first
+                if ((ea & 1) != (eb & 1))
+                    return (ea & 1) == 1 ? -1 : 1;
+                return ea - eb;
+            }
+        });
+        return events;
+    }
+
+    private double eventX(int e)
+    {
+        Rect4d rc = partRects[e >> 1];
+        return (e & 1) == 0 ? rc.x1 : rc.x2;
+    }
+
+    private void findOverlaps()
+    {
+        double[] ys = getYs();
+        Integer[] events = getEvents();
+        ActiveTree tree = new ActiveTree(ys.length - 1, partRects.length);
+
+        int[] found = new int[16];
+        for (int i = 0; i < events.length; ++i)
+        {
+            int e = events[i].intValue();
+            int k = e >> 1;
+            int a = Arrays.binarySearch(ys, partRects[k].y1);
+            int b = Arrays.binarySearch(ys, partRects[k].y2);
+
+            if ((e & 1) == 1)
+            {
+                tree.remove(k, a, b);
+                continue;
+            }
+
+            int n = tree.query(a, b, found);
+            if (n > found.length)
+            {
+                found = new int[n];
+                tree.query(a, b, found);
+            }
+            for (int j = 0; j < n; ++j)
+                addOverlap(found[j], k);
+
+            tree.insert(k, a, b);
+        }
+    }
+
+    private void addOverlap(int k1, int k2)
+    {
+        ++overlapCount;
+        if (listOverlaps.size() >= MaxEntries)
+            return;
+
+        int first = Math.min(k1, k2), second = Math.max(k1, k2);
+        Rect4d r1 = partRects[first], r2 = partRects[second];
+        Rect4d area = new Rect4d(Math.max(r1.x1, r2.x1), Math.max(r1.y1,
+                r2.y1), Math.min(r1.x2, r2.x2), Math.min(r1.y2, r2.y2));
+        listOverlaps.add(new Overlap(partNames[first], partNames[second],
+                area));
+    }
+
+    private void findGaps()
+    {
+        double[] ys = getYs();
+        Integer[] events = getEvents();
+        CoverTree tree = new CoverTree(ys);
+
+        int fa = Arrays.binarySearch(ys, -Params.dFieldHeight);
+        int fb = Arrays.binarySearch(ys, Params.dFieldHeight);
+        double fx1 = -Params.dFieldWidth, fx2 = Params.dFieldWidth;
+
+        // the gaps still growing in x: (run of y) -> x where it started
+        HashMap<Long, Double> open = new HashMap<Long, Double>();
+        ArrayList<Long> runs = new ArrayList<Long>();
+
+        double x = fx1;
+        int i = 0;
+        while (x < fx2)
+        {
+            while (i < events.length && eventX(events[i].intValue()) <= x)
+            {
+                int e = events[i++].intValue();
+                int k = e >> 1;
+                int a = Arrays.binarySearch(ys, partRects[k].y1);
+                int b = Arrays.binarySearch(ys, partRects[k].y2);
+                tree.add(a, b, (e & 1) == 0 ? 1 : -1);
+            }
+
+            double next = i < events.length ? Math.min(fx2, eventX(events[i]
+                    .intValue())) : fx2;
+
+            runs.clear();
+            tree.getUncovered(fa, fb, runs);
+
+            // close the gaps not continued in this slab
+            HashMap<Long, Double> stillOpen = new HashMap<Long, Double>();
+            for (int j = 0; j < runs.size(); ++j)
+            {
+                Long run = runs.get(j);
+                Double start = open.remove(run);
+                stillOpen.put(run, start != null ? start : Double.valueOf(x));
+            }
+            closeGaps(open, ys, x);
+            open = stillOpen;
+
+            x = next;
+        }
+        closeGaps(open, ys, fx2);
+    }
+
+    private void closeGaps(HashMap<Long, Double> open, double[] ys, double x)
+    {
+        Iterator<Map.Entry<Long, Double>> it = open.entrySet().iterator();
+        while (it.hasNext())
+        {
+            Map.Entry<Long, Double> e = it.next();
+            long run = e.getKey().longValue();
+            double x1 = e.getValue().doubleValue();
+            double y1 = ys[(int) (run >>> 32)], y2 = ys[(int) run];
+
+            ++gapCount;
+            gapArea += (x - x1) * (y2 - y1);
+            if (listGaps.size() < MaxEntries)
+                listGaps.add(new Rect4d(x1, y1, x, y2));
+        }
+    }
+
+    /**
+     * returns a human-readable report of the problems, listing at most the
+     * given number of each kind of them.
+     */
+    public String getReport(int maxLines)
+    {
+        StringBuilder sb = new StringBuilder();
+        sb.append(partNames.length).append(" partitions\n");
+
+        sb.append("\nOverlapping partitions: ").append(overlapCount)
+                .append('\n');
+        appendList(sb, listOverlaps, overlapCount, maxLines);
+
+        double fieldArea = 4 * Params.dFieldWidth * Params.dFieldHeight;
+        sb.append(String.format("\nUncovered areas: %d (%.2f of %.2f square "
+                + "meters)\n", gapCount, gapArea, fieldArea));
+        ArrayList<String> gaps = new ArrayList<String>();
+        for (int i = 0; i < listGaps.size() && i < maxLines; ++i)
+            gaps.add(format(listGaps.get(i)));
+        appendList(sb, gaps, gapCount, maxLines);
+
+        sb.append("\nPartitions lacking coefficients: ").append(
+                listMissing.size()).append('\n');
+        appendList(sb, listMissing, listMissing.size(), maxLines);
+
+        if (listUnplaced.size() > 0)
+        {
+            sb.append("\nPlayers without coefficients in any partition:");
+            for (int i = 0; i < listUnplaced.size(); ++i)
+                sb.append(' ').append(listUnplaced.get(i).intValue() + 1);
+            sb.append('\n');
+        }
+
+        return sb.toString();
+    }
+
+    private static void appendList(StringBuilder sb, ArrayList<?> list,
+            int count, int maxLines)
+    {
+        int n = Math.min(maxLines, list.size());
+        for (int i = 0; i < n; ++i)
+            sb.append("  ").append(list.get(i)).append('\n');
+        if (count > n)
+            sb.append("  ... and ").append(count - n).append(" more\n");
+    }
+
+    private static String format(Rect4d rc)
+    {
+        return "(" + Util.roundDefault(rc.x1) + ", "
+                + Util.roundDefault(rc.y1) + ") - ("
+                + Util.roundDefault(rc.x2) + ", "
+                + Util.roundDefault(rc.y2) + ")";
+    }
+
+    /**
+     * A segment tree over the elementary y intervals, keeping the y intervals
+     * of the active partitions, and finding the ones overlapping an interval.
+     * Each interval is kept in the nodes of its canonical cover; removed ones
+     * are dropped from the node lists lazily.
+     */
+    private static class ActiveTree
+    {
+        private int       size;
+
+        /**
+         * The intervals kept in each node, and their number
+         */
+        private int[][]   lists;
+        private int[]     listLens;
+
+        /**
+         * The number of the active intervals in the subtree of each node
+         */
+        private int[]     counts;
+
+        private boolean[] active;
+
+        /**
+         * The last query that reported each interval
+         */
+        private int[]     stamps;
+        private int       query = 0;
+
+        /*
+         * The state of the current operation
+         */
+        private int       opId, opA, opB, opDelta;
+        private int[]     opFound;
+        private int       opCount;
+
+        public ActiveTree(int size, int ids)
+        {
+            this.size = Math.max(1, size);
+            lists = new int[4 * this.size][];
+            listLens = new int[4 * this.size];
+            counts = new int[4 * this.size];
+            active = new boolean[ids];
+            stamps = new int[ids];
+        }
+
+        public void insert(int id, int a, int b)
+        {
+            active[id] = true;
+            opId = id;
+            opA = a;
+            opB = b;
+            opDelta = 1;
+            update(1, 0, size, true);
+        }
+
+        public void remove(int id, int a, int b)
+        {
+            active[id] = false;
+            opA = a;
+            opB = b;
+            opDelta = -1;
+            update(1, 0, size, false);
+        }
+
+        /**
+         * Stores the active intervals overlapping [a, b) in found.
+         *
+         * @return the number of the intervals, which may be more than the
+         *         length of found; then call it again with a larger array.
+         */
+        public int query(int a, int b, int[] found)
+        {
+            ++query;
+            opA = a;
+            opB = b;
+            opFound = found;
+            opCount = 0;
+            visit(1, 0, size);
+            return opCount;
+        }
+
+        private void update(int node, int lo, int hi, boolean add)
+        {
+            if (opB <= lo || hi <= opA)
+                return;
+
+            counts[node] += opDelta;
+            if (opA <= lo && hi <= opB)
+            {
+                if (add)
+                {
+                    if (lists[node] == null)
+                        lists[node] = new int[2];
+                    else if (listLens[node] == lists[node].length)
+                    {
+                        int[] l = new int[2 * listLens[node]];
+                        System.arraycopy(lists[node], 0, l, 0, listLens[node]);
+                        lists[node] = l;
+                    }
+                    lists[node][listLens[node]++] = opId;
+                }
+                return;
+            }
+
+            int mid = (lo + hi) >>> 1;
+            update(2 * node, lo, mid, add);
+            update(2 * node + 1, mid, hi, add);
+        }
+
+        private void report(int node)
+        {
+            int[] list = lists[node];
+            int n = 0;
+            for (int i = 0; i < listLens[node]; ++i)
+            {
+                int id = list[i];
+                if (!active[id])
+                    continue;
+                list[n++] = id;
+                if (stamps[id] != query)
+                {
+                    stamps[id] = query;
+                    if (opCount < opFound.length)
+                        opFound[opCount] = id;
+                    ++opCount;
+                }
+            }
+            listLens[node] = n;
+        }
+
+        private void visit(int node, int lo, int hi)
+        {
+            if (counts[node] == 0 || opB <= lo || hi <= opA)
+                return;
+
+            // the intervals kept here cover [lo, hi), which overlaps the
+            // query
+            if (listLens[node] > 0)
+                report(node);
+
+            if (hi - lo > 1)
+            {
+                int mid = (lo + hi) >>> 1;
+                visit(2 * node, lo, mid);
+                visit(2 * node + 1, mid, hi);
+            }
+        }
+    }
+
+    /**
+     * A segment tree over the elementary y intervals, counting how many times
+     * each one is covered, and finding the uncovered runs.
+     */
+    private static class CoverTree
+    {
+        private double[] ys;
+        private int      size;
+        private int[]    cover;
+        private double[] covered;
+
+        /*
+         * The state of the current operation
+         */
+        private int      opA, opB, opDelta;
+        private ArrayList<Long> opRuns;
+
+        public CoverTree(double[] ys)
+        {
+            this.ys = ys;
+            size = Math.max(1, ys.length - 1);
+            cover = new int[4 * size];
+            covered = new double[4 * size];
+        }
+
+        public void add(int a, int b, int delta)
+        {
+            opA = a;
+            opB = b;
+            opDelta = delta;
+            update(1, 0, size);
+        }
+
+        /**
+         * Adds the maximal uncovered runs of elementary intervals within
+         * [a, b) to runs, each encoded as (first << 32) | end.
+         */
+        public void getUncovered(int a, int b, ArrayList<Long> runs)
+        {
+            opA = a;
+            opB = b;
+            opRuns = runs;
+            collect(1, 0, size);
+        }
+
+        private double length(int lo, int hi)
+        {
+            return hi < ys.length ? ys[hi] - ys[lo] : 0.0;
+        }
+
+        private void update(int node, int lo, int hi)
+        {
+            if (opB <= lo || hi <= opA)
+                return;
+
+            if (opA <= lo && hi <= opB)
+                cover[node] += opDelta;
+            else
+            {
+                int mid = (lo + hi) >>> 1;
+                update(2 * node, lo, mid);
+                update(2 * node + 1, mid, hi);
+            }
+
+            if (cover[node] > 0)
+                covered[node] = length(lo, hi);
+            else if (hi - lo > 1)
+                covered[node] = covered[2 * node] + covered[2 * node + 1];
+            else
+                covered[node] = 0.0;
+        }
+
+        private void collect(int node, int lo, int hi)
+        {
+            if (opB <= lo || hi <= opA || cover[node] > 0
+                    || covered[node] >= length(lo, hi))
+                return;
+
+            if (hi - lo == 1 || covered[node] == 0.0)
+            {
+                int from = Math.max(lo, opA), to = Math.min(hi, opB);
+                int n = opRuns.size();
+                if (n > 0 && (int) opRuns.get(n - 1).longValue() == from)
+                {
+                    long first = opRuns.get(n - 1).longValue() >>> 32;
+                    opRuns.set(n - 1, Long.valueOf((first << 32) | to));
+                }
+                else
+                    opRuns.add(Long.valueOf(((long) from << 32) | to));
+                return;
+            }
+
+            int mid = (lo + hi) >>> 1;
+            collect(2 * node, lo, mid);
+            collect(2 * node + 1, mid, hi);
+        }
+    }
+
+    public static void main(String[] args)
+    {
+        if (args.length == 0)
+        {
+            System.err.println("Usage: PartitionAnalyzer files...");
+            System.err.println("  files may be .cas or .casb files, "
+                    + "directories, or patterns");
+            System.exit(2);
+        }
+
+        ArrayList<File> listFiles = new ArrayList<File>();
+        for (int i = 0; i < args.length; ++i)
+            Util.addFiles(args[i], new String[] { Params.AppFilesExt,
+                    Params.BinaryFilesExt }, listFiles);
+
+        boolean ok = true;
+        for (int i = 0; i < listFiles.size(); ++i)
+        {
+            String fileName = listFiles.get(i).getPath();
+            StrategyData sd = new StrategyData();
+            CASDiagnostics diag;
+            try
+            {
+                diag = sd.readFromFile(fileName);
+            }
+            catch (IOException ex)
+            {
+                System.err.println(fileName + ": " + ex.getMessage());
+                ok = false;
+                continue;
+            }
+            if (!diag.isEmpty())
+                System.err.println(fileName + ": " + diag.getSummary(10));
+
+            PartitionAnalyzer pa = new PartitionAnalyzer(sd);
+            System.out.println(fileName + ": " + pa.getReport(50));
+            ok &= pa.isEmpty();
+        }
+        System.exit(ok ? 0 : 1);
+    }
+}
@@ -0,0 +1,742 @@
+/*
+ This file is part of Coach Assistant
+ Copyright (C) 2004-2006 Sina Iravanian  <sina_iravanian@yahoo.com>
+
+ This program is free software; you can redistribute it and/or modify
+ it under the terms of the GNU General Public License as published by
+ the Free Software Foundation; version 2 of the License.
+
+ This program is distributed in the hope that it will be useful,
+ but WITHOUT ANY WARRANTY; without even the implied warranty of
+ MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ GNU General Public License for more details.
+
+ You should have received a copy of the GNU General Public License
+ along with this program; if not, write to the Free Software
+ Foundation, Inc., 675 Mass Ave, Cambridge, MA 02139, USA.
+ */
+
+package coachassistant;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * Creates the partitions of a strategy, and the coefficients of the players in
+ * them, from samples of (ball position, player position).
+ * <p>
+ * The field is subdivided as a quadtree: a cell is split into four when the
+ * least squares fit of some player in it (see <code>CoefsFitter</code>) is
+ * off its samples by more than a threshold, in root mean square. The leaves
+ * are then merged greedily into larger rectangles as long as the merged fits
+ * stay within the threshold, so the partitions are fewer than the leaves.
+ * <p>
+ * The samples are streamed once into the sums of the cells of the deepest
+ * level, so the tree is built from the sums only. The subtrees below
+ * <code>ParallelDepth</code> are built on a thread pool. A built tree can be
+ * refined in an area, for example with a new threshold or after more samples
+ * are added; only the cells overlapping the area are fitted again.
+ * <p>
+ * The cells are in the field coordination, covering the field. Balls outside
+ * the field count for the nearest cell.
+ * <p>
+ * Usage:
+ *
+ * <pre>
+ * java -cp coachassistant.jar coachassistant.PartitionGenerator [options] -out strategy.cas inputs...
+ * </pre>
+ */
+public class PartitionGenerator
+{
+    /**
+     * Depth of the subtrees built in parallel
+     */
+    public static final int ParallelDepth = 2;
+
+    /**
+     * The largest supported depth of the tree. Each level takes four times
+     * the memory of the one above; at this depth the sums of the samples take
+     * about 16 MB, for the generator and for each thread reading the inputs.
+     */
+    public static final int MaxDepth      = 7;
+
+    private static final int Stride        = CoefsFitter.Stride;
+
+    /**
+     * The depth of the deepest level, and the number of its cells along each
+     * axis
+     */
+    private int              depth;
+    private int              size;
+
+    /**
+     * Least number of samples of a player in a cell to fit him
+     */
+    private long             minSamples;
+
+    /**
+     * The sums of the samples of each cell of the deepest level, indexed as
+     * in <code>CoefsFitter.Accumulator</code> by the cell in row-major order
+     */
+    private double[]         cellSums;
+
+    private Node             root;
+
+    /**
+     * The threshold the tree was last built or refined with
+     */
+    private double           threshold = 0.0;
+
+    /**
+     * Set when a refinement stopped half way, leaving the tree unusable until
+     * it is generated again
+     */
+    private boolean          broken    = false;
+
+    /**
+     * A cell of the quadtree, covering the cells <code>[c1, c2) x
+     * [r1, r2)</code> of the deepest level.
+     */
+    private static class Node
+    {
+        int       c1, r1, c2, r2;
+        int       level;
+
+        /**
+         * The sums of the samples in the cell, taken when it was last fitted
+         */
+        double[]  sums;
+
+        /**
+         * The coefficients used for the players having too few samples in
+         * the cell; taken from the parent
+         */
+        Coefs4d[] inherited;
+
+        /**
+         * The four children, or null for a leaf
+         */
+        Node[]    children;
+
+        Node(int c1, int r1, int c2, int r2, int level)
+        {
+            this.c1 = c1;
+            this.r1 = r1;
+            this.c2 = c2;
+            this.r2 = r2;
+            this.level = level;
+        }
+    }
+
+    /**
+     * A merged rectangle of leaves, as in <code>Node</code>
+     */
+    private static class Part
+    {
+        int       c1, r1, c2, r2;
+        double[]  sums;
+        Coefs4d[] inherited;
+        boolean   alive = true;
+    }
+
+    /**
+     * @param depth
+     *            depth of the deepest level; the field is divided into at most
+     *            2^depth by 2^depth cells
+     * @param minSamples
+     *            least number of samples of a player in a cell to fit him
+     */
+    public PartitionGenerator(int depth, long minSamples)
+    {
+        if (depth < 0 || depth > MaxDepth)
+            throw new IllegalArgumentException("depth " + depth);
+
+        this.depth = depth;
+        this.minSamples = Math.max(2, minSamples);
+        size = 1 << depth;
+        cellSums = new double[size * size * 11 * Stride];
+        root = new Node(0, 0, size, size, 0);
+    }
+
+    /**
+     * returns a fitter reading samples into the cells of this generator, for
+     * the team playing on a given side in the logs. Add what it reads with
+     * <code>addSamples</code>.
+     *
+     * @param side
+     *            0 for the left team, 1 for the right one
+     */
+    public CoefsFitter createFitter(int side)
+    {
+        return new CellFitter(side);
+    }
+
+    /**
+     * returns a fitter reading samples into the cells of this generator, for
+     * the team with a given name in the logs.
+     */
+    public CoefsFitter createFitter(String teamName)
+    {
+        return new CellFitter(teamName);
+    }
+
+    /**
+     * A fitter whose partitions are the cells of the deepest level
+     */
+    private class CellFitter extends CoefsFitter
+    {
+        CellFitter(int side)
+        {
+            super(null, side);
+        }
+
+        CellFitter(String teamName)
+        {
+            super(null, teamName);
+        }
+
+        int getPartitionCount()
+        {
+            return size * size;
+        }
+
+        int getPartitionAt(double bx, double by)
+        {
+            return cellRow(by) * size + cellCol(bx);
+        }
+    }
+
+    private int cellCol(double x)
+    {
+        int c = (int) Math.floor((x + Params.dFieldWidth) * size
+                / (2 * Params.dFieldWidth));
+        return Math.max(0, Math.min(size - 1, c));
+    }
+
+    private int cellRow(double y)
+    {
+        int r = (int) Math.floor((y + Params.dFieldHeight) * size
+                / (2 * Params.dFieldHeight));
+        return Math.max(0, Math.min(size - 1, r));
+    }
+
+    /**
+     * Adds the samples read by a fitter of this generator. They are taken
+     * into account by the next <code>generate</code> or <code>refine</code>
+     * of their area.
+     */
+    public void addSamples(CoefsFitter.Accumulator acc)
+    {
+        if (acc.sums.length != cellSums.length)
+            throw new IllegalArgumentException("not read by a fitter of "
+                    + "this generator");
+
+        for (int i = 0; i < cellSums.length; ++i)
+            cellSums[i] += acc.sums[i];
+    }
+
+    /**
+     * Builds the whole tree.
+     *
+     * @param threshold
+     *            largest root mean square distance of the samples of a player
+     *            from his fitted positions, in meters
+     * @param threads
+     *            number of the subtrees built at the same time
+     * @throws InterruptedException
+     *             if the thread is interrupted while the subtrees are built
+     */
+    public void generate(double threshold, int threads)
+            throws InterruptedException
+    {
+        root = new Node(0, 0, size, size, 0);
+        broken = false;
+        refine(new Rect4d(-Params.dFieldWidth, -Params.dFieldHeight,
+                Params.dFieldWidth, Params.dFieldHeight), threshold, threads);
+    }
+
+    /**
+     * Fits the cells of the tree overlapping an area again, splitting or
+     * merging them according to a threshold. The rest of the tree is left as
+     * it is.
+     *
+     * @param area
+     *            the area in the field coordination
+     * @param threshold
+     *            see <code>generate</code>
+     * @param threads
+     *            number of the subtrees built at the same time
+     * @throws InterruptedException
+     *             if the thread is interrupted while the subtrees are built;
+     *             the tree is then left half refined, and cannot be applied
+     *             before it is generated again
+     */
+    public void refine(Rect4d area, final double threshold, int threads)
+            throws InterruptedException
+    {
+        this.threshold = threshold;
+
+        final int ac1 = cellCol(area.x1), ac2 = cellCol(area.x2) + 1;
+        final int ar1 = cellRow(area.y1), ar2 = cellRow(area.y2) + 1;
+
+        // the tree stays marked as broken unless the refinement completes
+        boolean wasBroken = broken;
+        broken = true;
+
+        // the top of the tree is refined here, and the subtrees below
+        // ParallelDepth are collected to be refined on the pool
+        ArrayList<Node> listDeferred = new ArrayList<Node>();
+        refine(root, ac1, ar1, ac2, ar2, threshold,
+                threads > 1 ? listDeferred : null);
+        if (listDeferred.size() == 0)
+        {
+            broken = wasBroken;
+            return;
+        }
+
+        ExecutorService pool = Executors.newFixedThreadPool(Math.min(threads,
+                listDeferred.size()));
+        ArrayList<Future<Object>> listResults = new ArrayList<Future<Object>>();
+        for (int i = 0; i < listDeferred.size(); ++i)
+        {
+            final Node node = listDeferred.get(i);
+            listResults.add(pool.submit(new Callable<Object>()
+            {
+                public Object call()
+                {
+                    refine(node, ac1, ar1, ac2, ar2, threshold, null);
+                    return null;
+                }
+            }));
+        }
+
+        try
+        {
+            for (int i = 0; i < listResults.size(); ++i)
+                listResults.get(i).get();
+        }
+        catch (ExecutionException ex)
+        {
+            Throwable cause = ex.getCause();
+            if (cause instanceof RuntimeException)
+                throw (RuntimeException) cause;
+            if (cause instanceof Error)
+                throw (Error) cause;
+            throw new RuntimeException(cause);
+        }
+        finally
+        {
+            pool.shutdownNow();
+        }
+        broken = wasBroken;
+    }
+
+    /**
+     * Refines a node overlapping the area <code>[ac1, ac2) x [ar1, ar2)</code>
+     * of the cells.
+     *
+     * @param deferred
+     *            if not null, the nodes at <code>ParallelDepth</code> are
+     *            added to it instead of being refined
+     */
+    private void refine(Node node, int ac1, int ar1, int ac2, int ar2,
+            double threshold, List<Node> deferred)
+    {
+        if (node.c2 <= ac1 || ac2 <= node.c1 || node.r2 <= ar1
+                || ar2 <= node.r1)
+            return;
+
+        if (deferred != null && node.level == ParallelDepth)
+        {
+            deferred.add(node);
+            return;
+        }
+
+        node.sums = sumCells(node.c1, node.r1, node.c2, node.r2);
+        if (node.level == depth || getError(node.sums) <= threshold)
+        {
+            node.children = null;
+            return;
+        }
+
+        if (node.children == null)
+        {
+            int cm = (node.c1 + node.c2) / 2, rm = (node.r1 + node.r2) / 2;
+            int l = node.level + 1;
+            node.children = new Node[] { new Node(node.c1, node.r1, cm, rm, l),
+                    new Node(cm, node.r1, node.c2, rm, l),
+                    new Node(node.c1, rm, cm, node.r2, l),
+                    new Node(cm, rm, node.c2, node.r2, l) };
+        }
+
+        Coefs4d[] coefs = getCoefs(node.sums, node.inherited);
+        for (int i = 0; i < 4; ++i)
+        {
+            node.children[i].inherited = coefs;
+            refine(node.children[i], ac1, ar1, ac2, ar2, threshold, deferred);
+        }
+    }
+
+    /**
+     * returns the sums of the samples of the cells <code>[c1, c2) x
+     * [r1, r2)</code> of the deepest level
+     */
+    private double[] sumCells(int c1, int r1, int c2, int r2)
+    {
+        double[] sums = new double[11 * Stride];
+        for (int r = r1; r < r2; ++r)
+        {
+            for (int c = c1; c < c2; ++c)
+            {
+                int base = (r * size + c) * 11 * Stride;
+                for (int i = 0; i < sums.length; ++i)
+                    sums[i] += cellSums[base + i];
+            }
+        }
+        return sums;
+    }
+
+    /**
+     * returns the largest root mean square error of the fits of the players
+     * having enough samples
+     */
+    private double getError(double[] sums)
+    {
+        double error = 0.0;
+        for (int p = 0; p < 11; ++p)
+        {
+            int i = p * Stride;
+            double n = sums[i];
+            if (n < minSamples)
+                continue;
+
+            double sse = CoefsFitter.solve(n, sums[i + 1], sums[i + 2],
+                    sums[i + 3], sums[i + 4], sums[i + 5])[2]
+                    + CoefsFitter.solve(n, sums[i + 6], sums[i + 7],
+                            sums[i + 8], sums[i + 9], sums[i + 10])[2];
+            error = Math.max(error, Math.sqrt(Math.max(0.0, sse / n)));
+        }
+        return error;
+    }
+
+    /**
+     * returns the fitted coefficients of the players, or the inherited ones
+     * for the players having too few samples
+     */
+    private Coefs4d[] getCoefs(double[] sums, Coefs4d[] inherited)
+    {
+        Coefs4d[] coefs = new Coefs4d[11];
+        for (int p = 0; p < 11; ++p)
+        {
+            int i = p * Stride;
+            double n = sums[i];
+            if (n < minSamples)
+            {
+                coefs[p] = inherited != null ? inherited[p] : null;
+                continue;
+            }
+
+            double[] x = CoefsFitter.solve(n, sums[i + 1], sums[i + 2],
+                    sums[i + 3], sums[i + 4], sums[i + 5]);
+            double[] y = CoefsFitter.solve(n, sums[i + 6], sums[i + 7],
+                    sums[i + 8], sums[i + 9], sums[i + 10]);
+            coefs[p] = new Coefs4d(x[0], y[0], x[1], y[1]);
+        }
+        return coefs;
+    }
+
+    /**
+     * returns the number of the leaves of the tree
+     */
+    public int getLeafCount()
+    {
+        return countLeaves(root);
+    }
+
+    private static int countLeaves(Node node)
+    {
+        if (node.children == null)
+            return 1;
+        int n = 0;
+        for (int i = 0; i < 4; ++i)
+            n += countLeaves(node.children[i]);
+        return n;
+    }
+
+    private void collectLeaves(Node node, List<Part> list)
+    {
+        if (node.children != null)
+        {
+            for (int i = 0; i < 4; ++i)
+                collectLeaves(node.children[i], list);
+            return;
+        }
+
+        Part part = new Part();
+        part.c1 = node.c1;
+        part.r1 = node.r1;
+        part.c2 = node.c2;
+        part.r2 = node.r2;
+        part.sums = node.sums != null ? node.sums : sumCells(node.c1,
+                node.r1, node.c2, node.r2);
+        part.inherited = node.inherited;
+        list.add(part);
+    }
+
+    /**
+     * returns the leaves of the tree, merged greedily with their neighbors of
+     * the same height (or width) while the merged fits stay within the
+     * threshold
+     */
+    private ArrayList<Part> getParts()
+    {
+        ArrayList<Part> list = new ArrayList<Part>();
+        collectLeaves(root, list);
+
+        // the parts by their left and top edges
+        HashMap<Long, Part> mapLeft = new HashMap<Long, Part>();
+        HashMap<Long, Part> mapTop = new HashMap<Long, Part>();
+        for (int i = 0; i < list.size(); ++i)
+        {
+            Part part = list.get(i);
+            mapLeft.put(edgeKey(part.c1, part.r1, part.r2), part);
+            mapTop.put(edgeKey(part.r1, part.c1, part.c2), part);
+        }
+
+        boolean merged = true;
+        while (merged)
+        {
+            merged = false;
+            for (int i = 0; i < list.size(); ++i)
+            {
+                Part part = list.get(i);
+                if (!part.alive)
+                    continue;
+
+                Part right = mapLeft.get(edgeKey(part.c2, part.r1, part.r2));
+                if (right != null && tryMerge(part, right))
+                {
+                    mapLeft.remove(edgeKey(right.c1, right.r1, right.r2));
+                    mapTop.remove(edgeKey(right.r1, right.c1, right.c2));
+                    mapTop.remove(edgeKey(part.r1, part.c1, part.c2));
+                    part.c2 = right.c2;
+                    mapTop.put(edgeKey(part.r1, part.c1, part.c2), part);
+                    merged = true;
+                }
+
+                Part below = mapTop.get(edgeKey(part.r2, part.c1, part.c2));
+                if (below != null && tryMerge(part, below))
+                {
+                    mapLeft.remove(edgeKey(below.c1, below.r1, below.r2));
+                    mapTop.remove(edgeKey(below.r1, below.c1, below.c2));
+                    mapLeft.remove(edgeKey(part.c1, part.r1, part.r2));
+                    part.r2 = below.r2;
+                    mapLeft.put(edgeKey(part.c1, part.r1, part.r2), part);
+                    merged = true;
+                }
+            }
+        }
+
+        ArrayList<Part> result = new ArrayList<Part>();
+        for (int i = 0; i < list.size(); ++i)
+        {
+            if (list.get(i).alive)
+                result.add(list.get(i));
+        }
+        return result;
+    }
+
+    private static Long edgeKey(int at, int from, int to)
+    {
+        return Long.valueOf(((long) at << 40) | ((long) from << 20) | to);
+    }
+
+    /**
+     * Merges the sums of <code>other</code> into <code>part</code> if the
+     * merged fits are within the threshold, and marks <code>other</code> as
+     * dead. The caller updates the bounds.
+     */
+    private boolean tryMerge(Part part, Part other)
+    {
+        double[] sums = new double[part.sums.length];
+        for (int i = 0; i < sums.length; ++i)
+            sums[i] = part.sums[i] + other.sums[i];
+        if (getError(sums) > threshold)
+            return false;
+
+        part.sums = sums;
+        other.alive = false;
+        return true;
+    }
+
+    /**
+     * Replaces the regions, partitions and coefficients of a strategy with the
+     * generated ones, in a single bulk update. The partitions are named with
+     * a prefix followed by a number. Players having no samples in a partition,
+     * nor in any cell containing it, get no coefficients there.
+     *
+     * @return the number of the partitions
+     * @throws IllegalStateException
+     *             if the last refinement of the tree was interrupted
+     */
+    public int apply(StrategyData sd, String prefix)
+    {
+        if (broken)
+            throw new IllegalStateException(
+                    "the tree was left half refined");
+
+        ArrayList<Part> listParts = getParts();
+        double cw = 2 * Params.dFieldWidth / size;
+        double ch = 2 * Params.dFieldHeight / size;
+
+        sd.beginUpdate();
+        try
+        {
+            sd.clear();
+            for (int k = 0; k < listParts.size(); ++k)
+            {
+                Part part = listParts.get(k);
+                String name = prefix + (k + 1);
+                Rect4d rc = new Rect4d(-Params.dFieldWidth + part.c1 * cw,
+                        -Params.dFieldHeight + part.r1 * ch,
+                        -Params.dFieldWidth + part.c2 * cw,
+                        -Params.dFieldHeight + part.r2 * ch);
+                sd.addRegion(name, Util.GlobalRect(rc));
+                sd.addRegToPartition(name);
+
+                Coefs4d[] coefs = getCoefs(part.sums, part.inherited);
+                for (int p = 0; p < 11; ++p)
+                {
+                    if (coefs[p] != null)
+                        sd.setCoefForPlayer(p, name, coefs[p]);
+                }
+            }
+        }
+        finally
+        {
+            sd.commitUpdate();
+        }
+        return listParts.size();
+    }
+
+    public static void main(String[] args)
+    {
+        String teamName = null;
+        int side = 0;
+        int threads = Runtime.getRuntime().availableProcessors();
+        long minSamples = 10;
+        int depth = 6;
+        double threshold = 2.0;
+        boolean playOnOnly = false;
+        String outFile = null;
+        ArrayList<File> listFiles = new ArrayList<File>();
+
+        try
+        {
+            for (int i = 0; i < args.length; ++i)
+            {
+                String arg = args[i];
+                if (arg.equals("-team"))
+                    teamName = args[++i];
+                else if (arg.equals("-side"))
+                {
+                    String s = args[++i];
+                    if (!s.equals("l") && !s.equals("r"))
+                        throw new IllegalArgumentException(s);
+                    side = s.equals("r") ? 1 : 0;
+                }
+                else if (arg.equals("-threads"))
+                    threads = Integer.parseInt(args[++i]);
+                else if (arg.equals("-min"))
+                    minSamples = Long.parseLong(args[++i]);
+                else if (arg.equals("-depth"))
+                    depth = Integer.parseInt(args[++i]);
+                else if (arg.equals("-threshold"))
+                    threshold = Double.parseDouble(args[++i]);
+                else if (arg.equals("-playon"))
+                    playOnOnly = true;
+                else if (arg.equals("-out"))
+                    outFile = args[++i];
+                else if (arg.startsWith("-"))
+                    throw new IllegalArgumentException(arg);
+                else
+                    Util.addFiles(arg, new String[] { "rcg", "rcg.gz",
+                            CoefsFitter.SampleFilesExt }, listFiles);
+            }
+        }
+        catch (RuntimeException ex)
+        {
+            listFiles.clear();
+        }
+
+        if (outFile == null || listFiles.size() == 0 || threads <= 0
+                || depth < 0 || depth > MaxDepth)
+        {
+            System.err.println("Usage: PartitionGenerator [options] -out "
+                    + "strategy.cas inputs...");
+            System.err.println("  inputs may be game logs (.rcg, .rcg.gz) or "
+                    + "sample files (." + CoefsFitter.SampleFilesExt + "),");
+            System.err.println("  directories, or patterns with * and ?");
+            System.err.println("Options:");
+            System.err.println("  -threshold <m>         largest rms error "
+                    + "of a player in a partition (default: 2)");
+            System.err.println("  -depth <n>             most levels of "
+                    + "subdivision, up to " + MaxDepth + " (default: 6)");
+            System.err.println("  -min <n>               least number of "
+                    + "samples to fit a player (default: 10)");
+            System.err.println("  -team <name>           name of our team in "
+                    + "the logs");
+            System.err.println("  -side l|r              our side, if -team "
+                    + "is not given (default: l)");
+            System.err.println("  -playon                use only the play_on "
+                    + "cycles of the logs");
+            System.err.println("  -threads <n>           number of threads");
+            System.exit(2);
+        }
+
+        PartitionGenerator gen = new PartitionGenerator(depth, minSamples);
+        CoefsFitter fitter = teamName != null ? gen.createFitter(teamName)
+                : gen.createFitter(side);
+        fitter.setPlayOnOnly(playOnOnly);
+
+        ArrayList<String> errors = new ArrayList<String>();
+        CoefsFitter.Accumulator acc = fitter.readAll(listFiles, threads,
+                errors);
+        for (int i = 0; i < errors.size(); ++i)
+            System.err.println(errors.get(i));
+        gen.addSamples(acc);
+
+        try
+        {
+            gen.generate(threshold, threads);
+        }
+        catch (InterruptedException ex)
+        {
+            System.err.println("interrupted");
+            System.exit(1);
+        }
+
+        StrategyData sd = new StrategyData();
+        int partitions = gen.apply(sd, "P");
+        System.out.println(acc.getSampleCount() + " samples, "
+                + gen.getLeafCount() + " cells, " + partitions + " partitions");
+        try
+        {
+            sd.saveToFile(outFile);
+        }
+        catch (IOException ex)
+        {
+            System.err.println(outFile + ": " + ex.getMessage());
+            System.exit(1);
+        }
+        System.exit(errors.size() == 0 ? 0 : 1);
+    }
+}
@@ -0,0 +1,243 @@
+/*
+ This file is part of Coach Assistant
+ Copyright (C) 2004-2006 Sina Iravanian  <sina_iravanian@yahoo.com>
+
+ This program is free software; you can redistribute it and/or modify
+ it under the terms of the GNU General Public License as published by
+ the Free Software Foundation; version 2 of the License.
+
+ This program is distributed in the hope that it will be useful,
+ but WITHOUT ANY WARRANTY; without even the implied warranty of
+ MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ GNU General Public License for more details.
+
+ You should have received a copy of the GNU General Public License
+ along with this program; if not, write to the Free Software
+ Foundation, Inc., 675 Mass Ave, Cambridge, MA 02139, USA.
+ */
+
+package coachassistant;
+
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.SortedSet;
+import java.util.TreeSet;
+
+/**
+ * The set of the partition names, kept in the order of their precedence.
+ * <p>
+ * Every partition has a priority, the lower coming first, and partitions of
+ * the same priority keep the order they were added in. New partitions get the
+ * default priority of zero, so unless priorities are set the order is the
+ * insertion order.
+ * <p>
+ * Membership is tested in constant time; adding, removing and reordering a
+ * partition take logarithmic time.
+ */
+class PartitionOrder
+{
+    /**
+     * The partitions, sorted by (priority, sequence)
+     */
+    private TreeSet<Entry>         setEntries = new TreeSet<Entry>();
+
+    /**
+     * A map from a partition name to its entry
+     */
+    private HashMap<String, Entry> mapEntries = new HashMap<String, Entry>();
+
+    /**
+     * The sequence number of the next partition added
+     */
+    private long                   nextSeq    = 0;
+
+    /**
+     * Adds a partition at the end of the partitions of the default priority.
+     * Nothing happens if the partition already exists.
+     */
+    public void add(String name)
+    {
+        add(name, 0);
+    }
+
+    /**
+     * Adds a partition after the others of the same priority. Nothing happens
+     * if the partition already exists.
+     */
+    public void add(String name, int priority)
+    {
+        if (mapEntries.containsKey(name))
+            return;
+
+        Entry e = new Entry(name, priority, nextSeq++);
+        mapEntries.put(name, e);
+        setEntries.add(e);
+    }
+
+    /**
+     * Removes a partition. Nothing happens if there's no such partition.
+     */
+    public void remove(String name)
+    {
+        Entry e = mapEntries.remove(name);
+        if (e != null)
+            setEntries.remove(e);
+    }
+
+    public boolean contains(String name)
+    {
+        return mapEntries.containsKey(name);
+    }
+
+    public boolean isEmpty()
+    {
+        return mapEntries.isEmpty();
+    }
+
+    public int size()
+    {
+        return mapEntries.size();
+    }
+
+    public void clear()
+    {
+        mapEntries.clear();
+        setEntries.clear();
+        nextSeq = 0;
+    }
+
+    /**
+     * returns the priority of a partition, or 0 if there's no such partition
+     */
+    public int getPriority(String name)
+    {
+        Entry e = mapEntries.get(name);
+        return e == null ? 0 : e.priority;
+    }
+
+    /**
+     * Changes the priority of a partition, moving it after the others of its
+     * new priority.
+     *
+     * @return false if there's no such partition
+     */
+    public boolean setPriority(String name, int priority)
+    {
+        Entry e = mapEntries.get(name);
+        if (e == null)
+            return false;
+
+        setEntries.remove(e);
+        e.priority = priority;
+        e.seq = nextSeq++;
+        setEntries.add(e);
+        return true;
+    }
+
+    /**
+     * Swaps a partition with the one before it, taking its priority.
+     *
+     * @return false if there's no such partition, or it is the first one
+     */
+    public boolean moveUp(String name)
+    {
+        Entry e = mapEntries.get(name);
+        if (e == null)
+            return false;
+        SortedSet<Entry> before = setEntries.headSet(e);
+        if (before.isEmpty())
+            return false;
+        Entry other = before.last();
+
+        swap(e, other);
+        return true;
+    }
+
+    /**
+     * Swaps a partition with the one after it, taking its priority.
+     *
+     * @return false if there's no such partition, or it is the last one
+     */
+    public boolean moveDown(String name)
+    {
+        Entry e = mapEntries.get(name);
+        if (e == null)
+            return false;
+        Iterator<Entry> it = setEntries.tailSet(e).iterator();
+        it.next(); // e itself
+        if (!it.hasNext())
+            return false;
+        Entry other = it.next();
+
+        swap(e, other);
+        return true;
+    }
+
+    private void swap(Entry e1, Entry e2)
+    {
+        setEntries.remove(e1);
+        setEntries.remove(e2);
+
+        int priority = e1.priority;
+        long seq = e1.seq;
+        e1.priority = e2.priority;
+        e1.seq = e2.seq;
+        e2.priority = priority;
+        e2.seq = seq;
+
+        setEntries.add(e1);
+        setEntries.add(e2);
+    }
+
+    /**
+     * returns an iterator over the names of the partitions, in their order.
+     * It does not support <code>remove</code>.
+     */
+    public Iterator<String> iterator()
+    {
+        final Iterator<Entry> it = setEntries.iterator();
+        return new Iterator<String>()
+        {
+            public boolean hasNext()
+            {
+                return it.hasNext();
+            }
+
+            public String next()
+            {
+                return it.next().name;
+            }
+
+            public void remove()
+            {
+                throw new UnsupportedOperationException();
+            }
+        };
+    }
+
+    /**
+     * A partition and its place in the order
+     */
+    private static class Entry implements Comparable<Entry>
+    {
+        String name;
+        int    priority;
+        long   seq;
+
+        Entry(String name, int priority, long seq)
+        {
+            this.name = name;
+            this.priority = priority;
+            this.seq = seq;
+        }
+
+        public int compareTo(Entry e)
+        {
+            if (priority != e.priority)
+                return priority < e.priority ? -1 : 1;
+            if (seq != e.seq)
+                return seq < e.seq ? -1 : 1;
+            return 0;
+        }
+    }
+}
@@ -20,9 +20,11 @@ package coachassistant;
 
 import java.awt.Cursor;
 import java.awt.Dimension;
-import java.awt.FontMetrics;
 import java.awt.Graphics;
-import java.awt.Image;
+import java.awt.GraphicsEnvironment;
+import java.awt.Rectangle;
+import java.awt.event.ActionEvent;
+import java.awt.event.ActionListener;
 import java.awt.event.MouseEvent;
 import java.awt.event.MouseListener;
 import java.awt.event.MouseMotionListener;
@@ -30,6 +32,7 @@ import java.util.ArrayList;
 import java.util.Iterator;
 
 import javax.swing.JPanel;
+import javax.swing.Timer;
 
 /**
  * This class is the GUI representation of the field (pitch).
@@ -37,7 +40,8 @@ import javax.swing.JPanel;
  * @author Sina
  * 
  */
-public class Pitch extends JPanel implements MouseListener, MouseMotionListener
+public class Pitch extends JPanel implements MouseListener,
+        MouseMotionListener, IStrategyDataListener
 {
     private static final long serialVersionUID        = -4605320772696082604L;
 
@@ -85,10 +89,41 @@ public class Pitch extends JPanel implements MouseListener, MouseMotionListener
      */
     private boolean           isMovingBall            = false;
 
+    /**
+     * The compiled positionings used while moving the ball. It is compiled
+     * when first needed, and thrown away whenever the strategy changes.
+     */
+    private CompiledFormation formation               = null;
+
+    /**
+     * The positions of our players calculated by <code>formation</code>
+     */
+    private double[]          targets                 = new double[22];
+
+    /**
+     * The last position of the mouse while moving the ball
+     */
+    private int               ballX, ballY;
+
+    /**
+     * Positions the players for the last position of the ball, once per
+     * <code>Params.BallMoveInterval</code>, however fast the mouse events
+     * arrive.
+     */
+    private Timer             ballMoveTimer;
+
+    /**
+     * The coverage of the field by our players, shown over the pitch if
+     * <code>showCoverage</code> is set
+     */
+    private CoverageMap       coverage;
+    private boolean           showCoverage            = false;
+
     public Pitch(CoachAssistant ca)
     {
         coachAssistant = ca;
         strategyData = ca.strategyData;
+        strategyData.addListener(this);
         setPreferredSize(new Dimension(
                 (int) (Params.dFieldScale * 2 * Params.dHalfWidth),
                 (int) (Params.dFieldScale * 2 * Params.dHalfHeight)));
@@ -99,6 +134,25 @@ public class Pitch extends JPanel implements MouseListener, MouseMotionListener
 
         setBackground(Params.ColorPitch);
 
+        ballMoveTimer = new Timer(Params.BallMoveInterval, new ActionListener()
+        {
+            public void actionPerformed(ActionEvent e)
+            {
+                positionPlayers();
+            }
+        });
+        ballMoveTimer.setRepeats(false);
+        ballMoveTimer.setCoalesce(true);
+
+        coverage = new CoverageMap(strategyData, new Runnable()
+        {
+            public void run()
+            {
+                if (showCoverage)
+                    repaint();
+            }
+        });
+
         createPlayers();
         lineupPlayers();
     }
@@ -131,6 +185,11 @@ public class Pitch extends JPanel implements MouseListener, MouseMotionListener
         rectBall = null;
         rectPlayer = null;
         isMovingBall = false;
+        ballMoveTimer.stop();
+
+        // the strategy may have been cleared without any events
+        formation = null;
+        invalidateCoverage();
 
         lineupPlayers();
     }
@@ -164,157 +223,231 @@ public class Pitch extends JPanel implements MouseListener, MouseMotionListener
         repaint();
     }
 
-    // / these variables are needed for double-buffering
-    Dimension offscreensize = null;
-    Image     offscreen     = null;
-    Graphics  offgraphics   = null;
-    Image     pitchImage    = null;
+    /**
+     * The off-screen buffer in which the pitch is drawn before being shown
+     */
+    IPitchBuffer  backBuffer     = null;
+
+    /**
+     * The static markings of the pitch, drawn once and copied to the back
+     * buffer whenever needed
+     */
+    IPitchBuffer  pitchLayer     = null;
+
+    /**
+     * The size of the area covered by <code>pitchLayer</code>; null if the
+     * markings must be drawn again
+     */
+    Dimension     pitchLayerSize = null;
+
+    /**
+     * The images of the players
+     */
+    PlayerSprites sprites        = new PlayerSprites();
+
+    /**
+     * Creates a buffer for drawing the pitch, according to
+     * <code>Params.AcceleratedPitch</code>. Override it to plug in another
+     * kind of buffers.
+     */
+    protected IPitchBuffer createBuffer()
+    {
+        if (Params.AcceleratedPitch && !GraphicsEnvironment.isHeadless())
+            return new VolatilePitchBuffer();
+        return new ImagePitchBuffer();
+    }
 
-    public synchronized void paint(Graphics g)
+    /**
+     * Draws the pitch. Only the clip area of <code>g</code> is redrawn, so the
+     * callers of <code>repaint</code> should pass the bounds of what they
+     * have changed (See <code>repaintPlayer</code> and
+     * <code>repaintRect</code>).
+     */
+    public void paint(Graphics g)
     {
         Dimension d = getSize();
-        if ((offscreen == null) || (d.width != offscreensize.width)
-                || (d.height != offscreensize.height))
+        if (d.width <= 0 || d.height <= 0)
+            return;
+
+        Rectangle clip = g.getClipBounds();
+        if (clip == null)
+            clip = new Rectangle(0, 0, d.width, d.height);
+
+        if (backBuffer == null)
+        {
+            backBuffer = createBuffer();
+            pitchLayer = createBuffer();
+        }
+
+        do
         {
-            offscreen = createImage(d.width, d.height);
-            offscreensize = d;
-            if (offgraphics != null)
+            backBuffer.validate(this, d.width, d.height);
+            if (pitchLayer.validate(this, d.width, d.height)
+                    || pitchLayerSize == null
+                    || d.width > pitchLayerSize.width
+                    || d.height > pitchLayerSize.height)
             {
-                offgraphics.dispose();
+                pitchLayerSize = d;
+                Graphics pg = pitchLayer.createGraphics();
+                drawPitch(pg);
+                pg.dispose();
             }
-            offgraphics = offscreen.getGraphics();
-            offgraphics.setFont(getFont());
 
-            pitchImage = null;
+            Graphics og = backBuffer.createGraphics();
+            og.setFont(getFont());
+            og.setClip(clip.x, clip.y, clip.width, clip.height);
+            pitchLayer.show(og, clip);
+            drawOverlays(og, clip);
+            og.dispose();
+
+            backBuffer.show(g, clip);
         }
+        while (backBuffer.contentsLost() || pitchLayer.contentsLost());
+    }
 
-        drawPitch(offgraphics);
+    /**
+     * Draws everything on the markings of the pitch: the coverage map, the
+     * regions and the players touching the clip rectangle.
+     */
+    private void drawOverlays(Graphics og, Rectangle clip)
+    {
+        if (showCoverage && coverage.getImage() != null)
+        {
+            int x1 = (int) Math.round(Util.GlobalX(-Params.dFieldWidth));
+            int y1 = (int) Math.round(Util.GlobalY(-Params.dFieldHeight));
+            int x2 = (int) Math.round(Util.GlobalX(Params.dFieldWidth));
+            int y2 = (int) Math.round(Util.GlobalY(Params.dFieldHeight));
+            og.drawImage(coverage.getImage(), x1, y1, x2 - x1, y2 - y1, null);
+        }
 
         if (rectBall != null)
         {
-            offgraphics.setColor(Params.ColorBallReg);
-            rectBall.draw(offgraphics);
+            og.setColor(Params.ColorBallReg);
+            rectBall.draw(og);
         }
 
         if (rectPlayer != null)
         {
-            offgraphics.setColor(Params.ColorPlayerReg);
-            rectPlayer.draw(offgraphics);
+            og.setColor(Params.ColorPlayerReg);
+            rectPlayer.draw(og);
         }
 
         if (isDrawingPlayer || isDrawingBall)
         {
-            offgraphics.setColor(isDrawingBall ? Params.ColorBallReg
+            og.setColor(isDrawingBall ? Params.ColorBallReg
                     : Params.ColorPlayerReg);
-            drawSRect(offgraphics, drSX, drSY, drEX, drEY);
+            drawSRect(og, drSX, drSY, drEX, drEY);
         }
 
-        FontMetrics fm = offgraphics.getFontMetrics();
+        int ext = getPlayerExtent();
         Iterator<Player> it = listOfPlayers.iterator();
         while (it.hasNext())
         {
-            drawPlayer(it.next(), offgraphics, fm);
+            Player p = it.next();
+            if (clip.intersects(p.x - ext, p.y - ext, 2 * ext, 2 * ext))
+                sprites.draw(og, p, this);
         }
-
-        g.drawImage(offscreen, 0, 0, null);
     }
 
-    public void update(Graphics g)
+    /**
+     * returns half of the size of the square covering a player and his
+     * caption
+     */
+    private int getPlayerExtent()
     {
-        paint(g);
+        sprites.validate(this);
+        return sprites.getExtent();
     }
 
-    private void drawPlayer(Player p, Graphics g, FontMetrics fm)
+    /**
+     * Requests to repaint the area covered by a player
+     */
+    private void repaintPlayer(Player p)
     {
-        int r = Params.PlayerRadius;
-
-        g.setColor(Params.BorderColor);
-        g.fillOval(p.x - r, p.y - r, 2 * r, 2 * r);
-
-        g.setColor(p.isOur ? Params.ColorOurPlayer : Params.ColorOppPlayer);
-        g.fillOval(p.x - r + 1, p.y - r + 1, 2 * r - 2, 2 * r - 2);
+        int ext = getPlayerExtent();
+        repaint(p.x - ext, p.y - ext, 2 * ext, 2 * ext);
+    }
 
-        String playerCaption = "" + p.unum;
-        if (p.unum == 10)
-        {
-            playerCaption = "A";
-        }
-        else if (p.unum == 11)
-        {
-            playerCaption = "B";
-        }
-        else if (p.unum > 11 || p.unum < 0)
-        {
-            playerCaption = "X";
-        }
+    /**
+     * Requests to repaint the area covered by the outline of a rectangle
+     * drawn by <code>drawSRect</code> or <code>Rect4d.draw</code>.
+     */
+    private void repaintRect(double x1, double y1, double x2, double y2)
+    {
+        int _x1 = (int) Math.floor(Math.min(x1, x2)) - 1;
+        int _y1 = (int) Math.floor(Math.min(y1, y2)) - 1;
+        int _x2 = (int) Math.ceil(Math.max(x1, x2)) + 2;
+        int _y2 = (int) Math.ceil(Math.max(y1, y2)) + 2;
+        repaint(_x1, _y1, _x2 - _x1, _y2 - _y1);
+    }
 
-        int w = fm.stringWidth(playerCaption);
-        int h = fm.getHeight();
-        g.setColor(Params.BorderColor);
-        g.drawString(playerCaption, p.x - w / 2, p.y - h / 2 + fm.getAscent());
+    private void repaintRect(Rect4d r)
+    {
+        if (r != null)
+            repaintRect(r.x1, r.y1, r.x2, r.y2);
     }
 
-    private void drawPitch(Graphics gr)
+    public void update(Graphics g)
     {
-        if (pitchImage == null)
-        {
-            Dimension d = getSize();
-            pitchImage = createImage(d.width, d.height);
+        paint(g);
+    }
 
-            Graphics g = pitchImage.getGraphics();
-            g.setFont(getFont());
+    /**
+     * Draws the static markings of the pitch
+     */
+    private void drawPitch(Graphics g)
+    {
+        g.setFont(getFont());
 
-            g.setColor(Params.ColorPitch);
-            g.fillRect(0, 0, getWidth(), getHeight());
+        g.setColor(Params.ColorPitch);
+        g.fillRect(0, 0, getWidth(), getHeight());
 
-            g.setColor(Params.ColorLine);
-            drawSRect(g, Util.GlobalX(-Params.dFieldWidth), Util
-                    .GlobalY(-Params.dFieldHeight), Util
-                    .GlobalX(Params.dFieldWidth), Util
-                    .GlobalY(Params.dFieldHeight));
+        g.setColor(Params.ColorLine);
+        drawSRect(g, Util.GlobalX(-Params.dFieldWidth), Util
+                .GlobalY(-Params.dFieldHeight), Util
+                .GlobalX(Params.dFieldWidth), Util
+                .GlobalY(Params.dFieldHeight));
 
-            drawSRect(g, Util.GlobalX(-Params.dFieldWidth), Util
-                    .GlobalY(-Params.dDangerY), Util.GlobalX(-Params.dDangerX),
-                    Util.GlobalY(Params.dDangerY));
+        drawSRect(g, Util.GlobalX(-Params.dFieldWidth), Util
+                .GlobalY(-Params.dDangerY), Util.GlobalX(-Params.dDangerX),
+                Util.GlobalY(Params.dDangerY));
 
-            drawSRect(g, Util.GlobalX(Params.dFieldWidth), Util
-                    .GlobalY(-Params.dDangerY), Util.GlobalX(Params.dDangerX),
-                    Util.GlobalY(Params.dDangerY));
+        drawSRect(g, Util.GlobalX(Params.dFieldWidth), Util
+                .GlobalY(-Params.dDangerY), Util.GlobalX(Params.dDangerX),
+                Util.GlobalY(Params.dDangerY));
 
-            drawSRect(g, Util.GlobalX(Params.dFieldWidth), Util
-                    .GlobalY(-Params.dGoalRegY),
-                    Util.GlobalX(Params.dGoalRegX), Util
-                            .GlobalY(Params.dGoalRegY));
+        drawSRect(g, Util.GlobalX(Params.dFieldWidth), Util
+                .GlobalY(-Params.dGoalRegY),
+                Util.GlobalX(Params.dGoalRegX), Util
+                        .GlobalY(Params.dGoalRegY));
 
-            drawSRect(g, Util.GlobalX(-Params.dFieldWidth), Util
-                    .GlobalY(-Params.dGoalRegY), Util
-                    .GlobalX(-Params.dGoalRegX), Util.GlobalY(Params.dGoalRegY));
+        drawSRect(g, Util.GlobalX(-Params.dFieldWidth), Util
+                .GlobalY(-Params.dGoalRegY), Util
+                .GlobalX(-Params.dGoalRegX), Util.GlobalY(Params.dGoalRegY));
 
-            drawSEllipse(g, Util.GlobalX(-Params.dMidRad), Util
-                    .GlobalY(-Params.dMidRad), Util.GlobalX(Params.dMidRad),
-                    Util.GlobalY(Params.dMidRad));
+        drawSEllipse(g, Util.GlobalX(-Params.dMidRad), Util
+                .GlobalY(-Params.dMidRad), Util.GlobalX(Params.dMidRad),
+                Util.GlobalY(Params.dMidRad));
 
-            fillSEllipse(g, Util.GlobalX(-0.5), Util.GlobalY(-0.5), Util
-                    .GlobalX(0.5), Util.GlobalY(0.5));
+        fillSEllipse(g, Util.GlobalX(-0.5), Util.GlobalY(-0.5), Util
+                .GlobalX(0.5), Util.GlobalY(0.5));
 
-            g.drawLine((int) Math.round(Util.GlobalX(0)), (int) Math.round(Util
-                    .GlobalY(-Params.dFieldHeight)), (int) Math.round(Util
-                    .GlobalX(0)), (int) Math.round(Util
-                    .GlobalY(Params.dFieldHeight)));
+        g.drawLine((int) Math.round(Util.GlobalX(0)), (int) Math.round(Util
+                .GlobalY(-Params.dFieldHeight)), (int) Math.round(Util
+                .GlobalX(0)), (int) Math.round(Util
+                .GlobalY(Params.dFieldHeight)));
 
-            g.setColor(Params.BorderColor);
+        g.setColor(Params.BorderColor);
 
-            fillSRect(g, Util.GlobalX(-Params.dFieldWidth), Util
-                    .GlobalY(-Params.dGoalWidth), Util
-                    .GlobalX(-Params.dFieldWidth - 1), Util
-                    .GlobalY(Params.dGoalWidth));
+        fillSRect(g, Util.GlobalX(-Params.dFieldWidth), Util
+                .GlobalY(-Params.dGoalWidth), Util
+                .GlobalX(-Params.dFieldWidth - 1), Util
+                .GlobalY(Params.dGoalWidth));
 
-            fillSRect(g, Util.GlobalX(Params.dFieldWidth), Util
-                    .GlobalY(-Params.dGoalWidth), Util
-                    .GlobalX(Params.dFieldWidth + 1), Util
-                    .GlobalY(Params.dGoalWidth));
-        }
-        gr.drawImage(pitchImage, 0, 0, null);
+        fillSRect(g, Util.GlobalX(Params.dFieldWidth), Util
+                .GlobalY(-Params.dGoalWidth), Util
+                .GlobalX(Params.dFieldWidth + 1), Util
+                .GlobalY(Params.dGoalWidth));
     }
 
     /**
@@ -362,19 +495,20 @@ public class Pitch extends JPanel implements MouseListener, MouseMotionListener
     }
 
     /**
-     * If the user is drawing a region resets needed variables and calls
-     * repaint.
+     * If the user is drawing a region resets needed variables and repaints the
+     * old and new outlines of the region.
      * <p>
-     * Else if the user is dragging a player changes its position and calls
-     * repaint
+     * Else if the user is dragging a player changes its position and repaints
+     * its old and new places.
      */
     public void mouseDragged(MouseEvent e)
     {
         if (isDrawingPlayer || isDrawingBall)
         {
+            repaintRect(drSX, drSY, drEX, drEY);
             drEX = e.getX();
             drEY = e.getY();
-            repaint();
+            repaintRect(drSX, drSY, drEX, drEY);
         }
         else
         {
@@ -393,9 +527,10 @@ public class Pitch extends JPanel implements MouseListener, MouseMotionListener
                 if (newy > getHeight())
                     newy = getHeight();
 
+                repaintPlayer(selectedPlayer);
                 selectedPlayer.x = newx;
                 selectedPlayer.y = newy;
-                repaint();
+                repaintPlayer(selectedPlayer);
             }
         }
         coachAssistant.setCoord(e.getX(), e.getY());
@@ -403,68 +538,50 @@ public class Pitch extends JPanel implements MouseListener, MouseMotionListener
 
     /**
      * Calls CoachAssistant to show the coordinations. If the user is moving the
-     * ball, changes the position of the players accordingly, and calls repaint.
+     * ball, keeps the position of the mouse for <code>ballMoveTimer</code>.
      */
-    public synchronized void mouseMoved(MouseEvent e)
+    public void mouseMoved(MouseEvent e)
     {
         coachAssistant.setCoord(e.getX(), e.getY());
 
         if (isMovingBall)
         {
-            for (int i = 0; i < 11; ++i)
-            {
-                Point2d pt = getMappedPointForPlayer(i, e.getX(), e.getY());
-                if (pt != null)
-                {
-                    listOfPlayers.get(i).x = (int) Math.round(pt.x);
-                    listOfPlayers.get(i).y = (int) Math.round(pt.y);
-                }
-            }
-            repaint();
+            ballX = e.getX();
+            ballY = e.getY();
+            if (!ballMoveTimer.isRunning())
+                ballMoveTimer.start();
         }
     }
 
     /**
-     * returns the position of a player, having the current position of the
-     * ball.
-     * <p>
-     * returns null if no positioning is assigned to the player for the current
-     * ball's position.
-     * 
-     * @param i
-     *            0-based index of the player
-     * @param x
-     *            x of the ball in global coordination
-     * @param y
-     *            y of the ball in global coordination
+     * Changes the position of the players according to the last position of
+     * the ball, and repaints the players that moved.
      */
-    private Point2d getMappedPointForPlayer(int i, int x, int y)
+    private void positionPlayers()
     {
-        Iterator<String> it = strategyData.getPartitionNamesIterator();
-        String regName = "";
-        Coefs4d cs = null;
+        if (!isMovingBall)
+            return;
 
-        while (it.hasNext())
+        if (formation == null)
+            formation = new CompiledFormation(strategyData);
+
+        formation.evaluate(Util.FieldX(ballX), Util.FieldY(ballY), targets);
+        for (int i = 0; i < 11; ++i)
         {
-            regName = it.next();
-            if (strategyData.getRectForRegion(regName).contains(x, y))
+            if (targets[2 * i] != Params.IllegalDouble)
             {
-                if (strategyData.partitionExistsForPlayer(i, regName))
+                Player p = listOfPlayers.get(i);
+                int x = (int) Math.round(Util.GlobalX(targets[2 * i]));
+                int y = (int) Math.round(Util.GlobalY(targets[2 * i + 1]));
+                if (x != p.x || y != p.y)
                 {
-                    cs = strategyData.getPlayerCoefs(i, regName);
-                    break;
+                    repaintPlayer(p);
+                    p.x = x;
+                    p.y = y;
+                    repaintPlayer(p);
                 }
             }
         }
-
-        if (cs != null)
-        {
-            double rx = Util.GlobalX(Util.FieldX(x) * cs.c1 + cs.o1);
-            double ry = Util.GlobalY(Util.FieldY(y) * cs.c2 + cs.o2);
-            return new Point2d(rx, ry);
-        }
-
-        return null;
     }
 
     public void mouseClicked(MouseEvent e)
@@ -539,13 +656,13 @@ public class Pitch extends JPanel implements MouseListener, MouseMotionListener
         {
             Rect4d r = new Rect4d(drSX, drSY, drEX, drEY);
 
+            // the drawing outline is replaced by the region
+            repaintRect(drSX, drSY, drEX, drEY);
             if (isDrawingBall)
                 setBallRect(r);
             else
                 setPlayerRect(r);
 
-            repaint();
-
             coachAssistant.finishedDrawing();
         }
 
@@ -568,9 +685,10 @@ public class Pitch extends JPanel implements MouseListener, MouseMotionListener
      */
     public void setPlayerRect(Rect4d r)
     {
+        repaintRect(rectPlayer);
         rectPlayer = r;
+        repaintRect(rectPlayer);
         coachAssistant.showCoefs();
-        repaint();
     }
 
     /**
@@ -596,9 +714,10 @@ public class Pitch extends JPanel implements MouseListener, MouseMotionListener
      */
     public void setBallRect(Rect4d r)
     {
+        repaintRect(rectBall);
         rectBall = r;
+        repaintRect(rectBall);
         coachAssistant.showCoefs();
-        repaint();
     }
 
     public void mouseEntered(MouseEvent e)
@@ -624,21 +743,54 @@ public class Pitch extends JPanel implements MouseListener, MouseMotionListener
     public void unsetBallMoveMode()
     {
         isMovingBall = false;
+        ballMoveTimer.stop();
     }
-}
 
-/**
- * A helper class to represent a point consisting of 2 doubles
- * 
- * @author Sina
- */
-class Point2d
-{
-    public double x = 0.0, y = 0.0;
+    /**
+     * Shows or hides the coverage map over the pitch. The map is computed in
+     * the background when first shown.
+     */
+    public void setShowCoverage(boolean show)
+    {
+        showCoverage = show;
+        if (show)
+            coverage.compute();
+        repaint();
+    }
+
+    /**
+     * Throws away the coverage map, and computes it again if it is shown.
+     */
+    private void invalidateCoverage()
+    {
+        coverage.invalidate();
+        if (showCoverage)
+        {
+            coverage.compute();
+            repaint();
+        }
+    }
+
+    public void OnRegionsChanged()
+    {
+        invalidateCoverage();
+    }
 
-    Point2d(double x, double y)
+    public void OnPartitionsChanged()
+    {
+        invalidateCoverage();
+    }
+
+    public void OnCoefsChanged()
+    {
+        invalidateCoverage();
+    }
+
+    /**
+     * Throws away the compiled positionings, since they are out of date.
+     */
+    public void OnStrategyChanged()
     {
-        this.x = x;
-        this.y = y;
+        formation = null;
     }
 }
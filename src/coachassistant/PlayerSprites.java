@@ -0,0 +1,136 @@
+/*
+ This file is part of Coach Assistant
+ Copyright (C) 2004-2006 Sina Iravanian  <sina_iravanian@yahoo.com>
+
+ This program is free software; you can redistribute it and/or modify
+ it under the terms of the GNU General Public License as published by
+ the Free Software Foundation; version 2 of the License.
+
+ This program is distributed in the hope that it will be useful,
+ but WITHOUT ANY WARRANTY; without even the implied warranty of
+ MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ GNU General Public License for more details.
+
+ You should have received a copy of the GNU General Public License
+ along with this program; if not, write to the Free Software
+ Foundation, Inc., 675 Mass Ave, Cambridge, MA 02139, USA.
+ */
+
+package coachassistant;
+
+import java.awt.Component;
+import java.awt.Font;
+import java.awt.FontMetrics;
+import java.awt.Graphics;
+import java.awt.GraphicsConfiguration;
+import java.awt.Image;
+import java.awt.Transparency;
+import java.awt.image.BufferedImage;
+
+/**
+ * Pre-rendered images of the players, one for each team and caption, so
+ * drawing a player on the pitch is a single <code>drawImage</code>.
+ * <p>
+ * The images are rendered when first needed, and thrown away when the font or
+ * <code>Params.PlayerRadius</code> changes.
+ */
+class PlayerSprites
+{
+    /**
+     * The captions of the players, indexed by <code>captionIndex</code>
+     */
+    private static final String[] Captions = { "0", "1", "2", "3", "4", "5",
+            "6", "7", "8", "9", "A", "B", "X" };
+
+    /**
+     * The images, indexed by team * Captions.length + caption
+     */
+    private Image[]               sprites  = new Image[2 * Captions.length];
+
+    /*
+     * What the images are rendered for
+     */
+    private Font                  font     = null;
+    private int                   radius   = -1;
+
+    /**
+     * Half of the size of the images
+     */
+    private int                   extent   = 0;
+
+    /**
+     * Makes sure the images are up to date with the font of a component and
+     * the radius of the players.
+     */
+    public void validate(Component c)
+    {
+        Font f = c.getFont();
+        if (f == font && radius == Params.PlayerRadius)
+            return;
+
+        font = f;
+        radius = Params.PlayerRadius;
+        for (int i = 0; i < sprites.length; ++i)
+            sprites[i] = null;
+
+        FontMetrics fm = c.getFontMetrics(font);
+        int text = Math.max(fm.getHeight(), fm.stringWidth("W")) / 2 + 1;
+        extent = Math.max(radius, text) + 1;
+    }
+
+    /**
+     * returns half of the size of the square covering a player and his
+     * caption. Call <code>validate</code> first.
+     */
+    public int getExtent()
+    {
+        return extent;
+    }
+
+    /**
+     * Draws a player centered at his position. Call <code>validate</code>
+     * first.
+     */
+    public void draw(Graphics g, Player p, Component c)
+    {
+        int i = (p.isOur ? 0 : Captions.length) + captionIndex(p.unum);
+        if (sprites[i] == null)
+            sprites[i] = render(p.isOur, Captions[captionIndex(p.unum)], c);
+        g.drawImage(sprites[i], p.x - extent, p.y - extent, null);
+    }
+
+    private static int captionIndex(int unum)
+    {
+        if (0 <= unum && unum <= 11)
+            return unum;
+        return Captions.length - 1;
+    }
+
+    private Image render(boolean our, String caption, Component c)
+    {
+        int size = 2 * extent;
+        GraphicsConfiguration gc = c.getGraphicsConfiguration();
+        Image image = gc != null ? gc.createCompatibleImage(size, size,
+                Transparency.TRANSLUCENT) : new BufferedImage(size, size,
+                BufferedImage.TYPE_INT_ARGB);
+
+        Graphics g = image.getGraphics();
+        g.setFont(font);
+        int r = radius;
+
+        g.setColor(Params.BorderColor);
+        g.fillOval(extent - r, extent - r, 2 * r, 2 * r);
+
+        g.setColor(our ? Params.ColorOurPlayer : Params.ColorOppPlayer);
+        g.fillOval(extent - r + 1, extent - r + 1, 2 * r - 2, 2 * r - 2);
+
+        FontMetrics fm = g.getFontMetrics();
+        int w = fm.stringWidth(caption);
+        int h = fm.getHeight();
+        g.setColor(Params.BorderColor);
+        g.drawString(caption, extent - w / 2, extent - h / 2 + fm.getAscent());
+
+        g.dispose();
+        return image;
+    }
+}
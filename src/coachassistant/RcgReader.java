@@ -0,0 +1,372 @@
+/*
+ This file is part of Coach Assistant
+ Copyright (C) 2004-2006 Sina Iravanian  <sina_iravanian@yahoo.com>
+
+ This program is free software; you can redistribute it and/or modify
+ it under the terms of the GNU General Public License as published by
+ the Free Software Foundation; version 2 of the License.
+
+ This program is distributed in the hope that it will be useful,
+ but WITHOUT ANY WARRANTY; without even the implied warranty of
+ MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ GNU General Public License for more details.
+
+ You should have received a copy of the GNU General Public License
+ along with this program; if not, write to the Free Software
+ Foundation, Inc., 675 Mass Ave, Cambridge, MA 02139, USA.
+ */
+
+package coachassistant;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.ReadableByteChannel;
+import java.util.zip.GZIPInputStream;
+
+/**
+ * Reads the cycles of a text game log (.rcg) of rcssserver, one at a time.
+ * <p>
+ * Only the text logs (starting with <code>ULG4</code> or a later version) are
+ * supported. Plain files are read through memory-mapped windows of the file,
+ * and gzipped ones (.rcg.gz) through a stream, so the memory used does not
+ * depend on the size of the log. The command logs (.rcl) contain no positions
+ * and are rejected.
+ * <p>
+ * After each successful call of <code>nextShow</code> the public fields hold
+ * the state of the game in that cycle. Side 0 is the left team and side 1 the
+ * right one; positions are in the global coordination of the server.
+ */
+public class RcgReader
+{
+    /**
+     * Size of the memory-mapped windows of the file
+     */
+    private static final long     WindowSize = 64L << 20;
+
+    /*
+     * The source of the bytes: a mapped file, or a stream
+     */
+    private FileChannel           channel;
+    private long                  fileSize, mapped;
+    private ReadableByteChannel   stream;
+    private ByteBuffer            window;
+
+    /*
+     * The current line
+     */
+    private char[]                line       = new char[1024];
+    private int                   lineLen    = 0;
+    private int                   pos        = 0;
+
+    /**
+     * The cycle of the last show
+     */
+    public int                    time       = 0;
+
+    /**
+     * The current play mode, like <code>play_on</code> or
+     * <code>kick_in_l</code>
+     */
+    public String                 playMode   = "before_kick_off";
+
+    /**
+     * The names of the left and right teams
+     */
+    public String[]               teamNames  = { "null", "null" };
+
+    /*
+     * The ball and the players, indexed by [side][unum - 1]
+     */
+    public double                 ballX, ballY;
+    public double[][]             playerX    = new double[2][11];
+    public double[][]             playerY    = new double[2][11];
+    public boolean[][]            playerOn   = new boolean[2][11];
+
+    /**
+     * Opens a game log.
+     *
+     * @throws IOException
+     *             if the file can not be read, or it is not a text game log
+     */
+    public RcgReader(File file) throws IOException
+    {
+        if (file.getName().toLowerCase().endsWith(".gz"))
+        {
+            InputStream in = new GZIPInputStream(new FileInputStream(file),
+                    1 << 16);
+            stream = Channels.newChannel(in);
+            window = ByteBuffer.allocate(1 << 16);
+            window.flip();
+        }
+        else
+        {
+            RandomAccessFile raf = new RandomAccessFile(file, "r");
+            channel = raf.getChannel();
+            fileSize = channel.size();
+            mapped = 0;
+        }
+
+        if (!nextLine() || lineLen < 4 || line[0] != 'U' || line[1] != 'L'
+                || line[2] != 'G' || line[3] < '4' || line[3] > '9')
+        {
+            close();
+            throw new IOException(file
+                    + ": not a text game log (ULG4 or later)");
+        }
+    }
+
+    public void close() throws IOException
+    {
+        if (channel != null)
+            channel.close();
+        if (stream != null)
+            stream.close();
+        channel = null;
+        stream = null;
+        window = null;
+    }
+
+    /**
+     * Reads the log up to the next show, keeping track of the play modes and
+     * the team names on the way.
+     *
+     * @return false if the end of the log is reached
+     * @throws IOException
+     */
+    public boolean nextShow() throws IOException
+    {
+        while (nextLine())
+        {
+            if (startsWith("(show "))
+            {
+                if (parseShow())
+                    return true;
+            }
+            else if (startsWith("(playmode "))
+            {
+                skipToken();
+                skipToken();
+                String mode = readToken();
+                if (mode.length() > 0)
+                    playMode = mode;
+            }
+            else if (startsWith("(team "))
+            {
+                skipToken();
+                skipToken();
+                teamNames[0] = readToken();
+                teamNames[1] = readToken();
+            }
+        }
+        return false;
+    }
+
+    /**
+     * returns the next byte of the log, or -1 at its end
+     */
+    private int read() throws IOException
+    {
+        if (window == null || !window.hasRemaining())
+        {
+            if (channel != null)
+            {
+                if (mapped >= fileSize)
+                    return -1;
+                long size = Math.min(WindowSize, fileSize - mapped);
+                window = channel.map(FileChannel.MapMode.READ_ONLY, mapped,
+                        size);
+                mapped += size;
+            }
+            else
+            {
+                if (stream == null)
+                    return -1;
+                window.clear();
+                int n;
+                do
+                {
+                    n = stream.read(window);
+                }
+                while (n == 0);
+                window.flip();
+                if (n < 0)
+                    return -1;
+            }
+        }
+        return window.get() & 0xff;
+    }
+
+    private boolean nextLine() throws IOException
+    {
+        lineLen = 0;
+        pos = 0;
+
+        int ch = read();
+        if (ch < 0)
+            return false;
+
+        while (ch >= 0 && ch != '\n')
+        {
+            if (lineLen == line.length)
+            {
+                char[] l = new char[line.length * 2];
+                System.arraycopy(line, 0, l, 0, lineLen);
+                line = l;
+            }
+            if (ch != '\r')
+                line[lineLen++] = (char) ch;
+            ch = read();
+        }
+        return true;
+    }
+
+    private boolean startsWith(String str)
+    {
+        if (lineLen < str.length())
+            return false;
+        for (int i = 0; i < str.length(); ++i)
+        {
+            if (line[i] != str.charAt(i))
+                return false;
+        }
+        return true;
+    }
+
+    private static boolean isDelimiter(char ch)
+    {
+        return ch == ' ' || ch == '(' || ch == ')' || ch == '\t';
+    }
+
+    private void skipDelimiters()
+    {
+        while (pos < lineLen && isDelimiter(line[pos]))
+            ++pos;
+    }
+
+    private void skipToken()
+    {
+        skipDelimiters();
+        while (pos < lineLen && !isDelimiter(line[pos]))
+            ++pos;
+    }
+
+    private String readToken()
+    {
+        skipDelimiters();
+        int start = pos;
+        while (pos < lineLen && !isDelimiter(line[pos]))
+            ++pos;
+        return new String(line, start, pos - start);
+    }
+
+    /**
+     * Reads the next token as a double
+     */
+    private double readDouble()
+    {
+        skipDelimiters();
+        int start = pos;
+        while (pos < lineLen && !isDelimiter(line[pos]))
+            ++pos;
+        return CASScanner.parseDouble(line, start, pos);
+    }
+
+    /**
+     * Reads the next token as a hexadecimal number, like <code>0x9</code>
+     */
+    private int readHex()
+    {
+        skipDelimiters();
+        if (pos + 1 < lineLen && line[pos] == '0'
+                && (line[pos + 1] == 'x' || line[pos + 1] == 'X'))
+            pos += 2;
+
+        int n = 0;
+        while (pos < lineLen && !isDelimiter(line[pos]))
+            n = n * 16 + Character.digit(line[pos++], 16);
+        return n;
+    }
+
+    /**
+     * Moves to the end of the parenthesized group starting at
+     * <code>start</code>
+     */
+    private void skipGroup(int start)
+    {
+        int depth = 0;
+        for (pos = start; pos < lineLen; ++pos)
+        {
+            if (line[pos] == '(')
+                ++depth;
+            else if (line[pos] == ')' && --depth == 0)
+            {
+                ++pos;
+                return;
+            }
+        }
+    }
+
+    /**
+     * Parses a line like
+     * <code>(show 1 ((b) 0 0 0 0) ((l 1) 0 0x9 -50 0 0 0 0 0 ...) ...)</code>
+     *
+     * @return false if the line is malformed
+     */
+    private boolean parseShow()
+    {
+        for (int s = 0; s < 2; ++s)
+            for (int i = 0; i < 11; ++i)
+                playerOn[s][i] = false;
+
+        try
+        {
+            pos = "(show ".length();
+            time = (int) readDouble();
+
+            while (true)
+            {
+                while (pos < lineLen && line[pos] != '(')
+                    ++pos;
+                if (pos + 3 >= lineLen)
+                    return true;
+
+                int start = pos;
+                if (line[pos + 1] == '(' && line[pos + 2] == 'b'
+                        && line[pos + 3] == ')')
+                {
+                    pos += 4;
+                    ballX = readDouble();
+                    ballY = readDouble();
+                }
+                else if (line[pos + 1] == '('
+                        && (line[pos + 2] == 'l' || line[pos + 2] == 'r'))
+                {
+                    int side = line[pos + 2] == 'l' ? 0 : 1;
+                    pos += 3;
+                    int unum = (int) readDouble();
+                    skipToken(); // type
+                    int state = readHex();
+                    double x = readDouble();
+                    double y = readDouble();
+                    if (1 <= unum && unum <= 11 && state != 0)
+                    {
+                        playerX[side][unum - 1] = x;
+                        playerY[side][unum - 1] = y;
+                        playerOn[side][unum - 1] = true;
+                    }
+                }
+                skipGroup(start);
+            }
+        }
+        catch (NumberFormatException ex)
+        {
+            return false;
+        }
+    }
+}
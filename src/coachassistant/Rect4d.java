@@ -91,10 +91,23 @@ public class Rect4d
 
     public String toCLang()
     {
-        return "(rec (pt " + Util.roundTo(x1, Params.Precision) + "  "
-                + Util.roundTo(y1, Params.Precision) + ") (pt "
-                + Util.roundTo(x2, Params.Precision) + "  "
-                + Util.roundTo(y2, Params.Precision) + ") )";
+        return appendCLang(new StringBuilder(64)).toString();
+    }
+
+    /**
+     * Appends the CLang counterpart of the rectangle (the same as
+     * <code>toCLang</code>) to a <code>StringBuilder</code>.
+     * 
+     * @return the <code>StringBuilder</code> passed
+     */
+    public StringBuilder appendCLang(StringBuilder sb)
+    {
+        sb.append("(rec (pt ").append(Util.roundTo(x1, Params.Precision));
+        sb.append("  ").append(Util.roundTo(y1, Params.Precision));
+        sb.append(") (pt ").append(Util.roundTo(x2, Params.Precision));
+        sb.append("  ").append(Util.roundTo(y2, Params.Precision));
+        sb.append(") )");
+        return sb;
     }
 
 }
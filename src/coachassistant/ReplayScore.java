@@ -0,0 +1,253 @@
+/*
+ This file is part of Coach Assistant
+ Copyright (C) 2004-2006 Sina Iravanian  <sina_iravanian@yahoo.com>
+
+ This program is free software; you can redistribute it and/or modify
+ it under the terms of the GNU General Public License as published by
+ the Free Software Foundation; version 2 of the License.
+
+ This program is distributed in the hope that it will be useful,
+ but WITHOUT ANY WARRANTY; without even the implied warranty of
+ MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ GNU General Public License for more details.
+
+ You should have received a copy of the GNU General Public License
+ along with this program; if not, write to the Free Software
+ Foundation, Inc., 675 Mass Ave, Cambridge, MA 02139, USA.
+ */
+
+package coachassistant;
+
+import java.util.Iterator;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * The deviations of the players of a team from the targets of a formation,
+ * accumulated over one or more game logs. See <code>ReplayScorer</code>.
+ * <p>
+ * Only sums are kept, so the memory used does not depend on the length of the
+ * logs, and the scores of several logs can be merged.
+ */
+public class ReplayScore
+{
+    /**
+     * Statistics of a set of distances
+     */
+    public static class Deviation
+    {
+        private long   count = 0;
+        private double sum   = 0.0, sumSq = 0.0, max = 0.0;
+
+        public void add(double d)
+        {
+            ++count;
+            sum += d;
+            sumSq += d * d;
+            if (d > max)
+                max = d;
+        }
+
+        public void merge(Deviation dev)
+        {
+            count += dev.count;
+            sum += dev.sum;
+            sumSq += dev.sumSq;
+            if (dev.max > max)
+                max = dev.max;
+        }
+
+        public long getCount()
+        {
+            return count;
+        }
+
+        public double getMean()
+        {
+            return count == 0 ? 0.0 : sum / count;
+        }
+
+        /**
+         * returns the root mean square of the distances
+         */
+        public double getRms()
+        {
+            return count == 0 ? 0.0 : Math.sqrt(sumSq / count);
+        }
+
+        public double getMax()
+        {
+            return max;
+        }
+
+        public String toString()
+        {
+            return String.format("%10d %8.2f %8.2f %8.2f", count, getMean(),
+                    getRms(), max);
+        }
+    }
+
+    private String[]                   partNames;
+    private Deviation                  total       = new Deviation();
+    private Deviation[]                perPlayer   = new Deviation[11];
+    private Deviation[]                perPartition;
+
+    /**
+     * The deviations per play mode, where the side in the name of the play
+     * mode is replaced by "our" or "opp"
+     */
+    private TreeMap<String, Deviation> perPlayMode = new TreeMap<String, Deviation>();
+
+    private int                        logs        = 0;
+    private long                       cycles      = 0;
+
+    /**
+     * @param formation
+     *            the formation whose partitions are scored
+     */
+    public ReplayScore(CompiledFormation formation)
+    {
+        partNames = new String[formation.getPartitionCount()];
+        for (int k = 0; k < partNames.length; ++k)
+            partNames[k] = formation.getPartitionName(k);
+
+        perPartition = new Deviation[partNames.length];
+        for (int k = 0; k < perPartition.length; ++k)
+            perPartition[k] = new Deviation();
+        for (int p = 0; p < 11; ++p)
+            perPlayer[p] = new Deviation();
+    }
+
+    /**
+     * returns the statistics of a play mode, creating them if needed.
+     */
+    Deviation getPlayMode(String playMode)
+    {
+        Deviation dev = perPlayMode.get(playMode);
+        if (dev == null)
+        {
+            dev = new Deviation();
+            perPlayMode.put(playMode, dev);
+        }
+        return dev;
+    }
+
+    /**
+     * Adds the deviation of a player in a cycle.
+     *
+     * @param player
+     *            index of the player (0 to 10)
+     * @param partition
+     *            index of the partition containing the ball
+     * @param playMode
+     *            statistics of the current play mode
+     * @param d
+     *            distance of the player from his target
+     */
+    void add(int player, int partition, Deviation playMode, double d)
+    {
+        total.add(d);
+        perPlayer[player].add(d);
+        perPartition[partition].add(d);
+        playMode.add(d);
+    }
+
+    void addCycle()
+    {
+        ++cycles;
+    }
+
+    void addLog()
+    {
+        ++logs;
+    }
+
+    /**
+     * Adds the deviations of another score of the same formation to this one.
+     */
+    public void merge(ReplayScore score)
+    {
+        total.merge(score.total);
+        for (int p = 0; p < 11; ++p)
+            perPlayer[p].merge(score.perPlayer[p]);
+        for (int k = 0; k < perPartition.length; ++k)
+            perPartition[k].merge(score.perPartition[k]);
+
+        Iterator<Map.Entry<String, Deviation>> it = score.perPlayMode
+                .entrySet().iterator();
+        while (it.hasNext())
+        {
+            Map.Entry<String, Deviation> e = it.next();
+            getPlayMode(e.getKey()).merge(e.getValue());
+        }
+
+        logs += score.logs;
+        cycles += score.cycles;
+    }
+
+    public Deviation getTotal()
+    {
+        return total;
+    }
+
+    public Deviation getPlayer(int player)
+    {
+        return perPlayer[player];
+    }
+
+    public Deviation getPartition(int partition)
+    {
+        return perPartition[partition];
+    }
+
+    public int getLogCount()
+    {
+        return logs;
+    }
+
+    public long getCycleCount()
+    {
+        return cycles;
+    }
+
+    /**
+     * returns a human-readable table of the deviations
+     */
+    public String getReport()
+    {
+        StringBuilder sb = new StringBuilder();
+        sb.append(logs).append(" logs, ").append(cycles).append(
+                " cycles scored\n");
+
+        String header = String.format("%-20s %10s %8s %8s %8s\n", "",
+                "samples", "mean", "rms", "max");
+        sb.append('\n').append(header);
+        sb.append(String.format("%-20s ", "total")).append(total).append('\n');
+
+        sb.append("\nPlayers\n");
+        for (int p = 0; p < 11; ++p)
+        {
+            sb.append(String.format("%-20s ", "Player" + (p + 1))).append(
+                    perPlayer[p]).append('\n');
+        }
+
+        sb.append("\nPartitions (of the ball)\n");
+        for (int k = 0; k < perPartition.length; ++k)
+        {
+            sb.append(String.format("%-20s ", partNames[k])).append(
+                    perPartition[k]).append('\n');
+        }
+
+        sb.append("\nPlay modes\n");
+        Iterator<Map.Entry<String, Deviation>> it = perPlayMode.entrySet()
+                .iterator();
+        while (it.hasNext())
+        {
+            Map.Entry<String, Deviation> e = it.next();
+            sb.append(String.format("%-20s ", e.getKey())).append(
+                    e.getValue()).append('\n');
+        }
+
+        return sb.toString();
+    }
+}
@@ -0,0 +1,320 @@
+/*
+ This file is part of Coach Assistant
+ Copyright (C) 2004-2006 Sina Iravanian  <sina_iravanian@yahoo.com>
+
+ This program is free software; you can redistribute it and/or modify
+ it under the terms of the GNU General Public License as published by
+ the Free Software Foundation; version 2 of the License.
+
+ This program is distributed in the hope that it will be useful,
+ but WITHOUT ANY WARRANTY; without even the implied warranty of
+ MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ GNU General Public License for more details.
+
+ You should have received a copy of the GNU General Public License
+ along with this program; if not, write to the Free Software
+ Foundation, Inc., 675 Mass Ave, Cambridge, MA 02139, USA.
+ */
+
+package coachassistant;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * Scores a formation against recorded games: for every cycle of a game log,
+ * the ball position is fed through the partitions and the coefficients of the
+ * strategy, and the distance of each player of our team from his target is
+ * accumulated per player, per partition of the ball and per play mode (See
+ * <code>ReplayScore</code>).
+ * <p>
+ * The logs are streamed by <code>RcgReader</code>, and several logs are
+ * scored in parallel, each one on its own thread. The scores are merged in the
+ * order of the logs, so the result does not depend on the number of threads.
+ * <p>
+ * The formation is written for a team playing on the left side. When our team
+ * plays on the right side, the positions in the log are mirrored.
+ * <p>
+ * Usage:
+ *
+ * <pre>
+ * java -cp coachassistant.jar coachassistant.ReplayScorer [options] strategy.cas logs...
+ * </pre>
+ */
+public class ReplayScorer
+{
+    private CompiledFormation formation;
+
+    /**
+     * Name of our team in the logs, or null to use <code>side</code>
+     */
+    private String            teamName;
+
+    /**
+     * Our side when <code>teamName</code> is null: 0 for left, 1 for right
+     */
+    private int               side;
+
+    /**
+     * Creates a scorer for the team playing on a given side.
+     *
+     * @param side
+     *            0 for the left team, 1 for the right one
+     */
+    public ReplayScorer(CompiledFormation formation, int side)
+    {
+        this.formation = formation;
+        this.side = side;
+    }
+
+    /**
+     * Creates a scorer for the team with a given name, on whichever side it
+     * plays.
+     */
+    public ReplayScorer(CompiledFormation formation, String teamName)
+    {
+        this.formation = formation;
+        this.teamName = teamName;
+    }
+
+    /**
+     * Scores a single log.
+     *
+     * @throws IOException
+     *             if the log can not be read, or our team is not found in it
+     */
+    public ReplayScore score(File file) throws IOException
+    {
+        ReplayScore score = new ReplayScore(formation);
+        score.addLog();
+
+        double[] targets = new double[22];
+        RcgReader reader = new RcgReader(file);
+        try
+        {
+            int ourSide = teamName == null ? side : -1;
+
+            String lastMode = null;
+            ReplayScore.Deviation modeDev = null;
+            while (reader.nextShow())
+            {
+                if (ourSide < 0)
+                {
+                    if (teamName.equals(reader.teamNames[0]))
+                        ourSide = 0;
+                    else if (teamName.equals(reader.teamNames[1]))
+                        ourSide = 1;
+                    else
+                        continue;
+                }
+
+                // the reader makes a new string for each play mode line
+                if (reader.playMode != lastMode)
+                {
+                    lastMode = reader.playMode;
+                    modeDev = score.getPlayMode(relativePlayMode(lastMode,
+                            ourSide));
+                }
+
+                // the formation is for the left side
+                double sign = ourSide == 0 ? 1.0 : -1.0;
+                double bx = sign * reader.ballX;
+                double by = sign * reader.ballY;
+
+                int part = formation.getPartitionAt(bx, by);
+                if (part < 0)
+                    continue;
+
+                score.addCycle();
+                formation.evaluate(bx, by, targets);
+                for (int p = 0; p < 11; ++p)
+                {
+                    if (!reader.playerOn[ourSide][p]
+                            || targets[2 * p] == Params.IllegalDouble)
+                        continue;
+
+                    double dx = sign * reader.playerX[ourSide][p]
+                            - targets[2 * p];
+                    double dy = sign * reader.playerY[ourSide][p]
+                            - targets[2 * p + 1];
+                    score.add(p, part, modeDev, Math.sqrt(dx * dx + dy * dy));
+                }
+            }
+
+            if (ourSide < 0)
+                throw new IOException(file + ": team " + teamName
+                        + " not found");
+        }
+        finally
+        {
+            reader.close();
+        }
+
+        return score;
+    }
+
+    /**
+     * Scores several logs in parallel, and merges the results.
+     *
+     * @param threads
+     *            number of the logs scored at the same time
+     * @param errors
+     *            the messages of the logs which could not be scored are added
+     *            to this list
+     */
+    public ReplayScore scoreAll(List<File> files, int threads,
+            List<String> errors)
+    {
+        threads = Math.max(1, Math.min(threads, files.size()));
+        ExecutorService pool = Executors.newFixedThreadPool(threads);
+
+        // at most 2 * threads logs are scored ahead of the one merged, so
+        // only as many scores are kept at once
+        ArrayList<Future<ReplayScore>> listResults = new ArrayList<Future<ReplayScore>>();
+        int submitted = 0;
+        ReplayScore total = new ReplayScore(formation);
+        try
+        {
+            for (int i = 0; i < files.size(); ++i)
+            {
+                while (submitted < files.size() && submitted < i + 2 * threads)
+                {
+                    final File file = files.get(submitted++);
+                    listResults.add(pool.submit(new Callable<ReplayScore>()
+                    {
+                        public ReplayScore call() throws Exception
+                        {
+                            return score(file);
+                        }
+                    }));
+                }
+
+                Future<ReplayScore> result = listResults.set(i, null);
+                try
+                {
+                    total.merge(result.get());
+                }
+                catch (ExecutionException ex)
+                {
+                    Throwable cause = ex.getCause();
+                    errors.add(cause instanceof IOException ? cause
+                            .getMessage() : files.get(i) + ": " + cause);
+                }
+            }
+        }
+        catch (InterruptedException ex)
+        {
+            errors.add("interrupted");
+        }
+        finally
+        {
+            pool.shutdownNow();
+        }
+
+        return total;
+    }
+
+    /**
+     * Replaces the side in the name of a play mode, like
+     * <code>kick_in_l</code>, with "our" or "opp".
+     */
+    private static String relativePlayMode(String mode, int ourSide)
+    {
+        int n = mode.length();
+        if (n < 2 || mode.charAt(n - 2) != '_')
+            return mode;
+
+        char ch = mode.charAt(n - 1);
+        if (ch != 'l' && ch != 'r')
+            return mode;
+
+        boolean ours = (ch == 'l') == (ourSide == 0);
+        return mode.substring(0, n - 1) + (ours ? "our" : "opp");
+    }
+
+    public static void main(String[] args)
+    {
+        String teamName = null;
+        int side = 0;
+        int threads = Runtime.getRuntime().availableProcessors();
+        String casFile = null;
+        ArrayList<File> listFiles = new ArrayList<File>();
+
+        try
+        {
+            for (int i = 0; i < args.length; ++i)
+            {
+                String arg = args[i];
+                if (arg.equals("-team"))
+                    teamName = args[++i];
+                else if (arg.equals("-side"))
+                {
+                    String s = args[++i];
+                    if (!s.equals("l") && !s.equals("r"))
+                        throw new IllegalArgumentException(s);
+                    side = s.equals("r") ? 1 : 0;
+                }
+                else if (arg.equals("-threads"))
+                    threads = Integer.parseInt(args[++i]);
+                else if (arg.startsWith("-"))
+                    throw new IllegalArgumentException(arg);
+                else if (casFile == null)
+                    casFile = arg;
+                else
+                    Util.addFiles(arg, new String[] { "rcg", "rcg.gz" },
+                            listFiles);
+            }
+        }
+        catch (RuntimeException ex)
+        {
+            listFiles.clear();
+        }
+
+        if (casFile == null || listFiles.size() == 0 || threads <= 0)
+        {
+            System.err.println("Usage: ReplayScorer [options] strategy.cas "
+                    + "logs...");
+            System.err.println("  logs may be .rcg or .rcg.gz files, "
+                    + "directories, or patterns with * and ?");
+            System.err.println("Options:");
+            System.err.println("  -team <name>           name of our team in "
+                    + "the logs");
+            System.err.println("  -side l|r              our side, if -team "
+                    + "is not given (default: l)");
+            System.err.println("  -threads <n>           number of threads");
+            System.exit(2);
+        }
+
+        StrategyData sd = new StrategyData();
+        try
+        {
+            CASDiagnostics diag = sd.readFromFile(casFile);
+            if (!diag.isEmpty())
+                System.err.println(casFile + ": " + diag.getSummary(10));
+        }
+        catch (IOException ex)
+        {
+            System.err.println(casFile + ": " + ex.getMessage());
+            System.exit(1);
+        }
+
+        CompiledFormation formation = new CompiledFormation(sd);
+        ReplayScorer scorer = teamName != null ? new ReplayScorer(formation,
+                teamName) : new ReplayScorer(formation, side);
+
+        ArrayList<String> errors = new ArrayList<String>();
+        ReplayScore score = scorer.scoreAll(listFiles, threads, errors);
+        for (int i = 0; i < errors.size(); ++i)
+            System.err.println(errors.get(i));
+
+        System.out.print(score.getReport());
+        System.exit(errors.size() == 0 ? 0 : 1);
+    }
+}
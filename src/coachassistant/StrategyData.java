@@ -18,18 +18,16 @@
 
 package coachassistant;
 
-import java.io.BufferedReader;
 import java.io.BufferedWriter;
-import java.io.FileReader;
+import java.io.FileInputStream;
 import java.io.FileWriter;
 import java.io.IOException;
+import java.io.InputStreamReader;
+import java.nio.channels.FileChannel;
 import java.util.ArrayList;
 import java.util.HashMap;
-import java.util.HashSet;
 import java.util.Iterator;
-import java.util.StringTokenizer;
-
-import javax.swing.JOptionPane;
+import java.util.LinkedHashMap;
 
 /**
  * This class provides the data-structures needed to hold all the data used to
@@ -51,19 +49,27 @@ public class StrategyData
     /**
      * A map from a region name to its rectangle
      */
-    private HashMap<String, Rect4d>  mapName2Reg     = new HashMap<String, Rect4d>();
+    private HashMap<String, Rect4d>  mapName2Reg     = new LinkedHashMap<String, Rect4d>();
     /**
-     * The set of partition names
+     * The set of partition names, in the order of their precedence. When
+     * partitions overlap, the first one wins; the CLang rules and the .cas
+     * files are written in this order too.
      */
-    private HashSet<String>          setPartitions   = new HashSet<String>();
+    private PartitionOrder           setPartitions   = new PartitionOrder();
     /**
-     * Array of 11 maps used for all the 11 of <i>our</i> players.
+     * The coefficients of all the 11 of <i>our</i> players.
      * <p>
-     * Each element is a map from a partition name to a <code>Coefs4d</code>
-     * instance. Knowing these 2 together, leads to defining the position of the
-     * player when the ball is inside that partition.
+     * For each player it maps a partition name to its coefficients. Knowing
+     * these 2 together, leads to defining the position of the player when the
+     * ball is inside that partition.
+     */
+    private CoefsStore               playersCoefs    = new CoefsStore();
+
+    /**
+     * The changes made since the strategy was last read from or written to
+     * its file, to be appended to its journal by <code>saveIncremental</code>
      */
-    private HashMap[]                playersCoefs    = new HashMap[11];
+    private StrategyJournal          journal         = new StrategyJournal();
 
     /**
      * a list of listeners to the changes made to the data structures.
@@ -73,16 +79,24 @@ public class StrategyData
      */
     ArrayList<IStrategyDataListener> listOfListeners = new ArrayList<IStrategyDataListener>();
 
+    /**
+     * The nesting depth of <code>beginUpdate</code> calls. While it is
+     * positive, events are not raised but only marked as pending.
+     */
+    private int                      updateDepth     = 0;
+
+    /*
+     * The events raised during a bulk update, to be raised once the update is
+     * committed.
+     */
+    private boolean                  pendingRegions, pendingPartitions,
+            pendingCoefs;
+
     /**
      * The Constructor. :D
      */
     public StrategyData()
     {
-        // instantiate the 11 maps
-        for (int i = 0; i < 11; ++i)
-        {
-            playersCoefs[i] = new HashMap();
-        }
     }
 
     /**
@@ -101,6 +115,49 @@ public class StrategyData
         listOfListeners.add(listener);
     }
 
+    /**
+     * Starts a bulk update. Until the matching <code>commitUpdate</code> is
+     * called, no events are raised to the listeners; instead each kind of
+     * event that happens is raised only once when the update is committed.
+     * <p>
+     * Bulk updates may be nested, in which case the events are raised when the
+     * outermost one is committed.
+     */
+    public void beginUpdate()
+    {
+        ++updateDepth;
+    }
+
+    /**
+     * Finishes a bulk update started by <code>beginUpdate</code>, raising
+     * the coalesced events, if this is the outermost update.
+     */
+    public void commitUpdate()
+    {
+        if (updateDepth <= 0 || --updateDepth > 0)
+            return;
+
+        boolean regions = pendingRegions;
+        boolean partitions = pendingPartitions;
+        boolean coefs = pendingCoefs;
+        pendingRegions = pendingPartitions = pendingCoefs = false;
+
+        Iterator<IStrategyDataListener> it = listOfListeners.iterator();
+        while (it.hasNext())
+        {
+            IStrategyDataListener listener = it.next();
+            if (regions)
+                listener.OnRegionsChanged();
+            if (partitions)
+                listener.OnPartitionsChanged();
+            if (coefs)
+                listener.OnCoefsChanged();
+        }
+
+        if (regions || partitions || coefs)
+            raiseStrategyChanged();
+    }
+
     /**
      * Is called whenever any change in <i>any</i> of the data-structures are
      * made. It calls <code>IStrategyDataListener.OnStrategyChanged()</code>
@@ -125,6 +182,12 @@ public class StrategyData
      */
     private void raiseRegionsChanged()
     {
+        if (updateDepth > 0)
+        {
+            pendingRegions = true;
+            return;
+        }
+
         Iterator<IStrategyDataListener> it = listOfListeners.iterator();
         while (it.hasNext())
         {
@@ -141,6 +204,12 @@ public class StrategyData
      */
     private void raisePartitionsChanged()
     {
+        if (updateDepth > 0)
+        {
+            pendingPartitions = true;
+            return;
+        }
+
         Iterator<IStrategyDataListener> it = listOfListeners.iterator();
         while (it.hasNext())
         {
@@ -157,6 +226,12 @@ public class StrategyData
      */
     private void raiseCoefsChanged()
     {
+        if (updateDepth > 0)
+        {
+            pendingCoefs = true;
+            return;
+        }
+
         Iterator<IStrategyDataListener> it = listOfListeners.iterator();
         while (it.hasNext())
         {
@@ -167,16 +242,15 @@ public class StrategyData
     }
 
     /**
-     * Clears all the data-structures.
+     * Clears all the data-structures. The strategy has nothing to do with its
+     * file any more, so the next save writes it as a whole.
      */
     public void clear()
     {
+        journal.detach();
         mapName2Reg.clear();
         setPartitions.clear();
-        for (int i = 0; i < 11; ++i)
-        {
-            playersCoefs[i].clear();
-        }
+        playersCoefs.clear();
     }
 
     /**
@@ -191,6 +265,7 @@ public class StrategyData
     public void addRegion(String regName, Rect4d rc)
     {
         mapName2Reg.put(regName, rc);
+        journal.addRegion(regName, rc);
         raiseRegionsChanged();
     }
 
@@ -203,6 +278,7 @@ public class StrategyData
     public void removeRegion(String regName)
     {
         mapName2Reg.remove(regName);
+        journal.removeRegion(regName);
         raiseRegionsChanged();
         removeRegFromPartition(regName);
     }
@@ -231,14 +307,32 @@ public class StrategyData
     }
 
     /**
-     * Adds (declares) an existing region as a partition
+     * Adds (declares) an existing region as a partition. It comes after the
+     * other partitions of the default priority. Nothing changes in the order
+     * if it is already a partition.
      * 
      * @param regName
      *            the name of the region
      */
     public void addRegToPartition(String regName)
     {
-        setPartitions.add(regName);
+        addRegToPartition(regName, 0);
+    }
+
+    /**
+     * Adds (declares) an existing region as a partition of a given priority.
+     * It comes after the other partitions of that priority. Nothing changes
+     * if it is already a partition.
+     * 
+     * @param regName
+     *            the name of the region
+     * @param priority
+     *            the priority of the partition; lower priorities come first
+     */
+    public void addRegToPartition(String regName, int priority)
+    {
+        setPartitions.add(regName, priority);
+        journal.addPartition(regName, priority);
         raisePartitionsChanged();
     }
 
@@ -251,6 +345,7 @@ public class StrategyData
     public void removeRegFromPartition(String regName)
     {
         setPartitions.remove(regName);
+        journal.removePartition(regName);
         raisePartitionsChanged();
     }
 
@@ -265,6 +360,66 @@ public class StrategyData
         return setPartitions.contains(regName);
     }
 
+    /**
+     * returns the priority of a partition. Partitions of lower priorities
+     * come first.
+     * 
+     * @param regName
+     *            the name of the partition
+     */
+    public int getPartitionPriority(String regName)
+    {
+        return setPartitions.getPriority(regName);
+    }
+
+    /**
+     * Changes the priority of a partition. It comes after the other partitions
+     * of its new priority.
+     * 
+     * @param regName
+     *            the name of the partition
+     * @param priority
+     *            the new priority; lower priorities come first
+     */
+    public void setPartitionPriority(String regName, int priority)
+    {
+        if (setPartitions.setPriority(regName, priority))
+        {
+            journal.setPriority(regName, priority);
+            raisePartitionsChanged();
+        }
+    }
+
+    /**
+     * Moves a partition one place towards the beginning of the order,
+     * swapping it with the partition before it.
+     * 
+     * @return false if it is already the first one, or not a partition
+     */
+    public boolean movePartitionUp(String regName)
+    {
+        if (!setPartitions.moveUp(regName))
+            return false;
+        journal.moveUp(regName);
+        raisePartitionsChanged();
+        return true;
+    }
+
+    /**
+     * Moves a partition one place towards the end of the order, swapping it
+     * with the partition after it.
+     * 
+     * @return false if it is already the last one, or not a partition
+     */
+    public boolean movePartitionDown(String regName)
+    {
+        if (!setPartitions.moveDown(regName))
+            return false;
+        journal.moveDown(regName);
+        raisePartitionsChanged();
+        return true;
+    }
+
     /**
      * returns true if there are no partitions
      */
@@ -282,10 +437,22 @@ public class StrategyData
      * @param cs
      *            the coefficients according which the player must position
      */
-    @SuppressWarnings("unchecked")
     public void setCoefForPlayer(int index, String regName, Coefs4d cs)
     {
-        playersCoefs[index].put(regName, cs);
+        playersCoefs.set(index, regName, cs);
+        journal.setCoefs(index, regName, cs);
+        raiseCoefsChanged();
+    }
+
+    /**
+     * Sets the coefficients of a player for a partition given by its id in
+     * the store of the coefficients (See <code>getCoefsStore</code>). It
+     * spares the lookup of the name when loading many coefficients.
+     */
+    void setCoefForPlayer(int index, int id, Coefs4d cs)
+    {
+        playersCoefs.set(index, id, cs);
+        journal.setCoefs(index, playersCoefs.getName(id), cs);
         raiseCoefsChanged();
     }
 
@@ -300,11 +467,14 @@ public class StrategyData
      */
     public boolean partitionExistsForPlayer(int index, String regName)
     {
-        return playersCoefs[index].containsKey(regName);
+        return playersCoefs.exists(index, regName);
     }
 
     /**
      * returns the existing coefficients defined for a player for a partition
+     * <p>
+     * The returned instance is a copy; changing it does not affect the
+     * strategy.
      * 
      * @param index
      *            the 0-based index of the player
@@ -313,12 +483,21 @@ public class StrategyData
      */
     public Coefs4d getPlayerCoefs(int index, String regName)
     {
-        return (Coefs4d) playersCoefs[index].get(regName);
+        return playersCoefs.get(index, regName);
+    }
+
+    /**
+     * returns the dense store holding the coefficients of all the players. It
+     * is meant for the code evaluating whole-team positionings in tight loops.
+     */
+    CoefsStore getCoefsStore()
+    {
+        return playersCoefs;
     }
 
     /**
      * returns an iterator referring to the beginning of a set containing the
-     * name of all the regions
+     * name of all the regions, in the order they were added
      */
     public Iterator<String> getRegionNamesIterator()
     {
@@ -327,7 +506,7 @@ public class StrategyData
 
     /**
      * returns an iterator referring to the beginning of a set containing the
-     * name of the partitions
+     * name of the partitions, in their order
      */
     public Iterator<String> getPartitionNamesIterator()
     {
@@ -337,25 +516,84 @@ public class StrategyData
     /**
      * Reads the whole strategy from a .cas file. It makes use of the
      * <code>CASParser</code> class.
+     * <p>
+     * The file is loaded in a single bulk update, so the listeners are
+     * notified once for the whole file, rather than once per line.
+     * <p>
+     * Lines that cannot be parsed are skipped, and reported in the returned
+     * diagnostics.
+     * <p>
+     * Files with the .casb extension are read in the binary format instead
+     * (See <code>CASBinary</code>); they have no lines to skip, but a corrupt
+     * one throws an <code>IOException</code>.
+     * <p>
+     * Large .cas files are mapped into memory and parsed on all the
+     * processors (See <code>CASMappedReader</code>), with the same result.
+     * <p>
+     * The changes saved to the journal of the file by
+     * <code>saveIncremental</code> are replayed after the file is read.
      * 
      * @param fileName
      *            the name of the .cas file
+     * @return the problems found in the file
      * @throws IOException
      */
-    public void readFromFile(String fileName) throws IOException
+    public CASDiagnostics readFromFile(String fileName) throws IOException
     {
-        BufferedReader br = new BufferedReader(new FileReader(fileName));
+        FileInputStream in = new FileInputStream(fileName);
 
-        clear();
+        beginUpdate();
+        try
+        {
+            clear();
 
-        CASParser parser = new CASParser(this, br);
-        parser.parse(); // :D
+            FileChannel channel = in.getChannel();
+            CASDiagnostics diag = null;
+            if (CASBinary.isBinaryFile(fileName))
+            {
+                CASBinary.read(this, channel, fileName);
+                diag = new CASDiagnostics();
+            }
+            else if (channel.size() >= CASMappedReader.MinFileSize)
+            {
+                diag = new CASMappedReader(this, channel, Runtime
+                        .getRuntime().availableProcessors()).read();
+            }
 
-        br.close();
+            if (diag == null)
+            {
+                CASParser parser = new CASParser(this, new InputStreamReader(
+                        in));
+                diag = parser.parse(); // :D
+            }
+
+            // a journal not matching the file is left to be replaced by the
+            // next save
+            if (StrategyJournal.replay(this, fileName, diag))
+                journal.attach(fileName);
+            return diag;
+        }
+        finally
+        {
+            commitUpdate();
+            in.close();
+        }
     }
 
     /**
      * Saves the contents of the data-structure into a .cas file
+     * <p>
+     * The regions and the coefficients are written in the order they were
+     * added, and the partitions in their order, so saving the same strategy
+     * always gives the same file. The priority of a partition follows its name
+     * unless it is the default one, so reading the file back gives the same
+     * order and the same priorities.
+     * <p>
+     * Files with the .casb extension are written in the binary format (See
+     * <code>CASBinary</code>).
+     * <p>
+     * The journal of the file, if any, is deleted, as the file holds all of
+     * it now.
      * 
      * @param fileName
      *            the name of the file
@@ -363,6 +601,13 @@ public class StrategyData
      */
     public void saveToFile(String fileName) throws IOException
     {
+        if (CASBinary.isBinaryFile(fileName))
+        {
+            CASBinary.write(this, fileName);
+            compacted(fileName);
+            return;
+        }
+
         BufferedWriter br = new BufferedWriter(new FileWriter(fileName));
 
         // first save regions
@@ -373,7 +618,7 @@ public class StrategyData
         {
             key = it.next();
             Util.writeLine(br, key + "  "
-                    + (Util.FieldRect(mapName2Reg.get(key))).toString());
+                    + (Util.FieldRectForFile(mapName2Reg.get(key))).toString());
         }
 
         // second save partitions
@@ -381,7 +626,9 @@ public class StrategyData
         it = setPartitions.iterator();
         while (it.hasNext())
         {
-            Util.writeLine(br, it.next());
+            key = it.next();
+            int priority = setPartitions.getPriority(key);
+            Util.writeLine(br, priority == 0 ? key : key + "  " + priority);
         }
         // third save players
         char chUnum = '?';
@@ -396,200 +643,57 @@ public class StrategyData
 
             Util.writeLine(br, "[" + Params.HeaderPlayers + chUnum + "]");
 
-            Iterator iter = playersCoefs[i].keySet().iterator();
-            String regName;
-            Coefs4d cs;
-            while (iter.hasNext())
+            int nIds = playersCoefs.getIdCount();
+            for (int id = 0; id < nIds; ++id)
             {
-                regName = (String) iter.next();
-                cs = (Coefs4d) playersCoefs[i].get(regName);
-                Util.writeLine(br, regName + "  " + cs.toString());
+                if (playersCoefs.exists(i, id))
+                {
+                    String regName = playersCoefs.getName(id);
+                    Coefs4d cs = playersCoefs.get(i, regName);
+                    Util.writeLine(br, regName + "  " + cs.toString());
+                }
             }
         }
 
         br.close();
-    }
-}
-
-/**
- * This class parses the contents of a <code>BufferedReader</code> and stores
- * the result into a <code>StrategyData</code> instance.
- * <p>
- * It assumes that the file is in a .cas file format, otherwise the behaviour of
- * the parser is unknown.
- * 
- * @author Sina
- */
-class CASParser
-{
-    BufferedReader br;
-    StrategyData   strategyData;
-    Headers        currentHeader = null;
-    int            playerIndex   = -1;
-
-    public CASParser(StrategyData sd, BufferedReader br)
-    {
-        strategyData = sd;
-        this.br = br;
-    }
-
-    public void parse() throws IOException
-    {
-        String line = br.readLine();
-
-        while (line != null)
-        {
-            if (!parseLine(line))
-                JOptionPane.showMessageDialog(null, "Error in: " + line);
-            line = br.readLine();
-        }
-    }
-
-    private boolean parseLine(String str)
-    {
-        StringTokenizer st = new StringTokenizer(str, "[],# \t\r\n", true);
-
-        String token;
-        while (st.hasMoreTokens())
-        {
-            token = st.nextToken();
-            if (Util.isWhiteSpace(token))
-                continue;
-            if (token.compareTo("#") == 0)
-                return true;
-
-            if (token.compareTo("[") == 0)
-            {
-                return parseSegmentHeader(st);
-            }
-
-            char ch = token.charAt(0);
-            if (Character.isLetterOrDigit(ch) || ch == '_')
-            {
-                return parseSegmentContent(token, st);
-            }
-        }
-
-        return true;
+        compacted(fileName);
     }
 
-    private boolean parseSegmentContent(String token, StringTokenizer st)
+    /**
+     * Saves the strategy to a file, appending only the changes made since it
+     * was last read from or written to the file to its journal (See
+     * <code>StrategyJournal</code>), so the cost of a save does not depend on
+     * the size of the strategy.
+     * <p>
+     * The whole strategy is written, as by <code>saveToFile</code>, if it was
+     * not read from or written to this file, or the file has been changed by
+     * anything else since, or the journal has grown large compared to the
+     * file.
+     * 
+     * @param fileName
+     *            the name of the file
+     * @throws IOException
+     */
+    public void saveIncremental(String fileName) throws IOException
     {
-        switch (currentHeader)
+        if (!journal.isAttachedTo(fileName))
         {
-            case Partitions:
-                if (strategyData.regionExists(token))
-                    strategyData.addRegToPartition(token);
-                return true;
-            case Regions:
-            case Players:
-            {
-                ArrayList<Double> listParams = new ArrayList<Double>();
-
-                String str;
-                while (st.hasMoreTokens())
-                {
-                    str = st.nextToken();
-                    if (Util.isWhiteSpace(str))
-                        continue;
-                    try
-                    {
-                        listParams.add(new Double(Double.parseDouble(str)));
-                    }
-                    catch (NumberFormatException ex)
-                    {
-                        return false;
-                    }
-                }
-
-                if (listParams.size() != 4)
-                    return false;
-
-                if (currentHeader == Headers.Regions)
-                {
-                    strategyData.addRegion(token, Util.GlobalRect(new Rect4d(
-                            listParams.get(0).doubleValue(), listParams.get(1)
-                                    .doubleValue(), listParams.get(2)
-                                    .doubleValue(), listParams.get(3)
-                                    .doubleValue())));
-                }
-                else
-                {
-                    if (strategyData.isRegInPartition(token))
-                    {
-                        strategyData.setCoefForPlayer(playerIndex, token,
-                                new Coefs4d(listParams.get(0).doubleValue(),
-                                        listParams.get(1).doubleValue(),
-                                        listParams.get(2).doubleValue(),
-                                        listParams.get(3).doubleValue()));
-                    }
-                }
-                return true;
-            }
-            default:
-                return false;
+            saveToFile(fileName);
+            return;
         }
-    }
-
-    private boolean parseSegmentHeader(StringTokenizer st)
-    {
-        String token;
-        if (st.hasMoreTokens())
-        {
-            token = st.nextToken();
-
-            if (token.compareTo(Params.HeaderRegions) == 0)
-            {
-                currentHeader = Headers.Regions;
-                return true;
-            }
-            else if (token.compareTo(Params.HeaderPartitions) == 0)
-            {
-                currentHeader = Headers.Partitions;
-                return true;
-            }
-            else if (token.startsWith(Params.HeaderPlayers))
-            {
-                currentHeader = Headers.Players;
 
-                // PlayerA
-                // 0123456
-                int ch = -1;
-                if (token.length() >= 7)
-                    ch = token.charAt(6);
-
-                if (ch == 'A')
-                {
-                    playerIndex = 9;
-                    return true;
-                }
-                else if (ch == 'B')
-                {
-                    playerIndex = 10;
-                    return true;
-                }
-
-                int nch = Character.getNumericValue(ch)
-                        - Character.getNumericValue('0');
-
-                if (1 <= nch && nch <= 9)
-                {
-                    playerIndex = nch - 1;
-                    return true;
-                }
-            }
-        }
-        currentHeader = null;
-        return false;
+        journal.save();
+        if (journal.needsCompaction())
+            saveToFile(fileName);
     }
 
     /**
-     * The 3 headers of a typical .cas file
-     * 
-     * @author Sina
+     * Is called after the whole strategy is written to a file. Its journal is
+     * no longer needed, and the changes from now on are recorded for it.
      */
-    private enum Headers
+    private void compacted(String fileName) throws IOException
     {
-        Regions, Partitions, Players
+        StrategyJournal.delete(fileName);
+        journal.attach(fileName);
     }
 }
@@ -0,0 +1,498 @@
+/*
+ This file is part of Coach Assistant
+ Copyright (C) 2004-2006 Sina Iravanian  <sina_iravanian@yahoo.com>
+
+ This program is free software; you can redistribute it and/or modify
+ it under the terms of the GNU General Public License as published by
+ the Free Software Foundation; version 2 of the License.
+
+ This program is distributed in the hope that it will be useful,
+ but WITHOUT ANY WARRANTY; without even the implied warranty of
+ MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ GNU General Public License for more details.
+
+ You should have received a copy of the GNU General Public License
+ along with this program; if not, write to the Free Software
+ Foundation, Inc., 675 Mass Ave, Cambridge, MA 02139, USA.
+ */
+
+package coachassistant;
+
+import java.io.BufferedWriter;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.Writer;
+
+/**
+ * Writes random but valid .cas files, for load testing and for fuzzing the
+ * parser.
+ * <p>
+ * The partitions tile the field: it is split recursively into as many
+ * rectangles as there are partitions, and each of them is then grown on every
+ * side by the overlap ratio of its size, so a ratio of zero gives partitions
+ * that only touch. The other regions are placed at random. Each partition has
+ * coefficients for a given number of players, picked at random.
+ * <p>
+ * Everything is derived from the seed by hashing, so the same settings always
+ * give the same file, and the file is written as it is generated: the memory
+ * used does not depend on its size. Optionally a ratio of the lines are
+ * corrupted, to test the diagnostics of <code>CASParser</code>.
+ * <p>
+ * Usage:
+ *
+ * <pre>
+ * java -cp coachassistant.jar coachassistant.StrategyGenerator [options] out.cas
+ * </pre>
+ */
+public class StrategyGenerator
+{
+    /*
+     * The settings
+     */
+    private long          seed       = 1;
+    private int           partitions = 100;
+    private int           regions    = 0;
+    private double        overlap    = 0.0;
+    private int           players    = 11;
+    private double        badLines   = 0.0;
+
+    /*
+     * The state of the writing
+     */
+    private Writer        writer;
+    private StringBuilder sbLine     = new StringBuilder(128);
+    private char[]        lineChars  = new char[128];
+    private long          lines      = 0;
+    private long          chars      = 0;
+
+    /**
+     * Sets the seed all the random choices are derived from. It is 1 by
+     * default.
+     */
+    public void setSeed(long seed)
+    {
+        this.seed = seed;
+    }
+
+    /**
+     * Sets the number of the partitions. It is 100 by default.
+     */
+    public void setPartitions(int partitions)
+    {
+        if (partitions < 0)
+            throw new IllegalArgumentException("partitions " + partitions);
+        this.partitions = partitions;
+    }
+
+    /**
+     * Sets the number of the regions which are not partitions. It is 0 by
+     * default.
+     */
+    public void setRegions(int regions)
+    {
+        if (regions < 0)
+            throw new IllegalArgumentException("regions " + regions);
+        this.regions = regions;
+    }
+
+    /**
+     * Sets how much each partition is grown on every side, as a ratio of its
+     * size. It is 0 by default, for partitions that only touch.
+     */
+    public void setOverlap(double overlap)
+    {
+        if (overlap < 0)
+            throw new IllegalArgumentException("overlap " + overlap);
+        this.overlap = overlap;
+    }
+
+    /**
+     * Sets the number of the players having coefficients in each partition.
+     * It is 11 by default.
+     */
+    public void setPlayers(int players)
+    {
+        if (players < 0 || players > 11)
+            throw new IllegalArgumentException("players " + players);
+        this.players = players;
+    }
+
+    /**
+     * Sets the ratio of the lines which are corrupted. It is 0 by default.
+     */
+    public void setBadLines(double badLines)
+    {
+        this.badLines = badLines;
+    }
+
+    /**
+     * Sets the number of the partitions so that the file is about a given
+     * size.
+     */
+    public void setSize(long bytes)
+    {
+        // a region, a partition and the coefficients of the players
+        long perPartition = 44 + 8 + players * 40;
+        partitions = (int) Math.min(Integer.MAX_VALUE, Math.max(1, bytes
+                / perPartition));
+    }
+
+    /**
+     * returns the number of the lines written by the last
+     * <code>write</code>
+     */
+    public long getLineCount()
+    {
+        return lines;
+    }
+
+    /**
+     * returns the number of the characters written by the last
+     * <code>write</code>
+     */
+    public long getCharCount()
+    {
+        return chars;
+    }
+
+    public void write(String fileName) throws IOException
+    {
+        Writer w = new BufferedWriter(new FileWriter(fileName), 1 << 16);
+        try
+        {
+            write(w);
+        }
+        finally
+        {
+            w.close();
+        }
+    }
+
+    /**
+     * Writes a strategy. The writer is not closed.
+     */
+    public void write(Writer w) throws IOException
+    {
+        writer = w;
+        lines = 0;
+        chars = 0;
+        StringBuilder sb = sbLine;
+
+        header(Params.HeaderRegions);
+        writeTiles();
+        for (int k = 0; k < regions; ++k)
+        {
+            double x1 = (2 * random(2, k, 0) - 1) * Params.dFieldWidth;
+            double y1 = (2 * random(2, k, 1) - 1) * Params.dFieldHeight;
+            double x2 = x1 + random(2, k, 2) * (Params.dFieldWidth - x1);
+            double y2 = y1 + random(2, k, 3) * (Params.dFieldHeight - y1);
+            sb.setLength(0);
+            sb.append('R').append(k + 1);
+            appendNumbers(sb, x1, y1, x2, y2);
+            line();
+        }
+
+        header(Params.HeaderPartitions);
+        for (int k = 0; k < partitions; ++k)
+        {
+            sb.setLength(0);
+            sb.append('P').append(k + 1);
+            line();
+        }
+
+        for (int p = 0; p < 11; ++p)
+        {
+            header(Params.HeaderPlayers
+                    + (p < 9 ? (char) ('1' + p) : (char) ('A' + p - 9)));
+            for (int k = 0; k < partitions; ++k)
+            {
+                if (!hasCoefs(k, p))
+                    continue;
+
+                sb.setLength(0);
+                sb.append('P').append(k + 1);
+                appendNumbers(sb, 0.2 + 0.8 * random(3, k, 4 * p),
+                        0.2 + 0.8 * random(3, k, 4 * p + 1),
+                        40 * random(3, k, 4 * p + 2) - 20,
+                        30 * random(3, k, 4 * p + 3) - 15);
+                line();
+            }
+        }
+        writer = null;
+    }
+
+    /**
+     * Writes the regions of the partitions, splitting the field recursively
+     * along the longer side of each rectangle. The rectangles still to be
+     * split are kept on a stack, so the memory used is logarithmic in the
+     * number of the partitions.
+     */
+    private void writeTiles() throws IOException
+    {
+        if (partitions == 0)
+            return;
+
+        int depth = 64;
+        double[] stack = new double[depth * 4];
+        int[] counts = new int[depth];
+        long[] ids = new long[depth];
+        int top = 0;
+        stack[0] = -Params.dFieldWidth;
+        stack[1] = -Params.dFieldHeight;
+        stack[2] = Params.dFieldWidth;
+        stack[3] = Params.dFieldHeight;
+        counts[0] = partitions;
+        ids[0] = 1;
+        top = 1;
+
+        int k = 0;
+        while (top > 0)
+        {
+            --top;
+            double x1 = stack[4 * top], y1 = stack[4 * top + 1];
+            double x2 = stack[4 * top + 2], y2 = stack[4 * top + 3];
+            int n = counts[top];
+            long id = ids[top];
+
+            if (n == 1)
+            {
+                double dx = overlap * (x2 - x1), dy = overlap * (y2 - y1);
+                sbLine.setLength(0);
+                sbLine.append('P').append(++k);
+                appendNumbers(sbLine, Math.max(-Params.dFieldWidth, x1 - dx),
+                        Math.max(-Params.dFieldHeight, y1 - dy), Math.min(
+                                Params.dFieldWidth, x2 + dx), Math.min(
+                                Params.dFieldHeight, y2 + dy));
+                line();
+                continue;
+            }
+
+            // split in proportion to the counts, moved a little at random
+            int n1 = n / 2;
+            double f = (double) n1 / n * (0.8 + 0.4 * random(1, id, 0));
+            f = Math.max(0.1, Math.min(0.9, f));
+
+            double sx1 = x1, sy1 = y1, sx2 = x2, sy2 = y2;
+            if (x2 - x1 >= y2 - y1)
+                sx2 = sx1 = x1 + f * (x2 - x1);
+            else
+                sy2 = sy1 = y1 + f * (y2 - y1);
+
+            // the second half is pushed first, to be written last
+            push(stack, counts, ids, top++, sx1, sy1, x2, y2, n - n1,
+                    2 * id + 1);
+            push(stack, counts, ids, top++, x1, y1, sx2, sy2, n1, 2 * id);
+        }
+    }
+
+    private static void push(double[] stack, int[] counts, long[] ids, int i,
+            double x1, double y1, double x2, double y2, int n, long id)
+    {
+        stack[4 * i] = x1;
+        stack[4 * i + 1] = y1;
+        stack[4 * i + 2] = x2;
+        stack[4 * i + 3] = y2;
+        counts[i] = n;
+        ids[i] = id;
+    }
+
+    /**
+     * returns true if a player has coefficients in a partition: the players
+     * having the smallest hashes in the partition have.
+     */
+    private boolean hasCoefs(int k, int p)
+    {
+        if (players == 11)
+            return true;
+        if (players == 0)
+            return false;
+
+        double h = random(4, k, p);
+        int rank = 0;
+        for (int q = 0; q < 11; ++q)
+        {
+            double hq = random(4, k, q);
+            if (hq < h || (hq == h && q < p))
+                ++rank;
+        }
+        return rank < players;
+    }
+
+    private void header(String name) throws IOException
+    {
+        sbLine.setLength(0);
+        sbLine.append('[').append(name).append(']');
+        line();
+    }
+
+    /**
+     * Writes the line in <code>sbLine</code>, corrupting it at random if
+     * asked to.
+     */
+    private void line() throws IOException
+    {
+        StringBuilder sb = sbLine;
+        if (badLines > 0 && random(5, lines, 0) < badLines)
+            corrupt(sb, (int) (random(5, lines, 1) * 4));
+        sb.append('\n');
+
+        int n = sb.length();
+        if (n > lineChars.length)
+            lineChars = new char[Math.max(n, 2 * lineChars.length)];
+        sb.getChars(0, n, lineChars, 0);
+        writer.write(lineChars, 0, n);
+
+        ++lines;
+        chars += n;
+    }
+
+    private static void corrupt(StringBuilder sb, int kind)
+    {
+        int space = sb.lastIndexOf("  ");
+        switch (kind)
+        {
+        case 0: // a number missing
+            if (space > 0)
+                sb.setLength(space);
+            break;
+        case 1: // a number that is not
+            if (space > 0)
+                sb.insert(space + 2, 'x');
+            break;
+        case 2: // an unknown name
+            sb.insert(0, '?');
+            break;
+        default: // garbage
+            sb.setLength(0);
+            sb.append("))) (((");
+            break;
+        }
+    }
+
+    /**
+     * Appends four numbers, as in the .cas files
+     */
+    private static void appendNumbers(StringBuilder sb, double a, double b,
+            double c, double d)
+    {
+        appendFixed(sb.append("  "), a);
+        appendFixed(sb.append("  "), b);
+        appendFixed(sb.append("  "), c);
+        appendFixed(sb.append("  "), d);
+    }
+
+    /**
+     * Appends a number with three decimals, without creating any objects
+     */
+    private static void appendFixed(StringBuilder sb, double d)
+    {
+        long n = Math.round(d * 1000);
+        if (n < 0)
+        {
+            sb.append('-');
+            n = -n;
+        }
+        sb.append(n / 1000).append('.');
+        long frac = n % 1000;
+        if (frac < 100)
+            sb.append('0');
+        if (frac < 10)
+            sb.append('0');
+        sb.append(frac);
+    }
+
+    /**
+     * returns a number in [0, 1) derived from the seed and three integers by
+     * hashing
+     */
+    private double random(long a, long b, long c)
+    {
+        long h = mix(seed ^ mix(a ^ mix(b ^ mix(c))));
+        return (h >>> 11) / (double) (1L << 53);
+    }
+
+    /**
+     * The finalizer of SplitMix64
+     */
+    private static long mix(long z)
+    {
+        z += 0x9e3779b97f4a7c15L;
+        z = (z ^ (z >>> 30)) * 0xbf58476d1ce4e5b9L;
+        z = (z ^ (z >>> 27)) * 0x94d049bb133111ebL;
+        return z ^ (z >>> 31);
+    }
+
+    public static void main(String[] args)
+    {
+        StrategyGenerator gen = new StrategyGenerator();
+        String outFile = null;
+        long size = -1;
+
+        try
+        {
+            for (int i = 0; i < args.length; ++i)
+            {
+                String arg = args[i];
+                if (arg.equals("-seed"))
+                    gen.setSeed(Long.parseLong(args[++i]));
+                else if (arg.equals("-partitions"))
+                    gen.setPartitions(Integer.parseInt(args[++i]));
+                else if (arg.equals("-regions"))
+                    gen.setRegions(Integer.parseInt(args[++i]));
+                else if (arg.equals("-overlap"))
+                    gen.setOverlap(Double.parseDouble(args[++i]));
+                else if (arg.equals("-players"))
+                    gen.setPlayers(Integer.parseInt(args[++i]));
+                else if (arg.equals("-bad"))
+                    gen.setBadLines(Double.parseDouble(args[++i]));
+                else if (arg.equals("-size"))
+                    size = Long.parseLong(args[++i]) << 20;
+                else if (arg.startsWith("-") || outFile != null)
+                    throw new IllegalArgumentException(arg);
+                else
+                    outFile = arg;
+            }
+        }
+        catch (RuntimeException ex)
+        {
+            outFile = null;
+        }
+
+        if (outFile == null)
+        {
+            System.err.println("Usage: StrategyGenerator [options] out.cas");
+            System.err.println("Options:");
+            System.err.println("  -seed <n>              seed of the random "
+                    + "choices (default: 1)");
+            System.err.println("  -partitions <n>        number of the "
+                    + "partitions (default: 100)");
+            System.err.println("  -size <MB>             number of the "
+                    + "partitions for about this file size");
+            System.err.println("  -regions <n>           number of the other "
+                    + "regions (default: 0)");
+            System.err.println("  -overlap <ratio>       growth of the "
+                    + "partitions on each side (default: 0)");
+            System.err.println("  -players <n>           players having "
+                    + "coefficients in each partition (default: 11)");
+            System.err.println("  -bad <ratio>           ratio of the "
+                    + "corrupted lines (default: 0)");
+            System.exit(2);
+        }
+
+        // the size depends on the number of the players
+        if (size >= 0)
+            gen.setSize(size);
+
+        try
+        {
+            gen.write(outFile);
+        }
+        catch (IOException ex)
+        {
+            System.err.println(outFile + ": " + ex.getMessage());
+            System.exit(1);
+        }
+        System.out.println(outFile + ": " + gen.getLineCount() + " lines, "
+                + gen.getCharCount() + " characters");
+    }
+}
@@ -0,0 +1,456 @@
+/*
+ This file is part of Coach Assistant
+ Copyright (C) 2004-2006 Sina Iravanian  <sina_iravanian@yahoo.com>
+
+ This program is free software; you can redistribute it and/or modify
+ it under the terms of the GNU General Public License as published by
+ the Free Software Foundation; version 2 of the License.
+
+ This program is distributed in the hope that it will be useful,
+ but WITHOUT ANY WARRANTY; without even the implied warranty of
+ MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ GNU General Public License for more details.
+
+ You should have received a copy of the GNU General Public License
+ along with this program; if not, write to the Free Software
+ Foundation, Inc., 675 Mass Ave, Cambridge, MA 02139, USA.
+ */
+
+package coachassistant;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.RandomAccessFile;
+import java.util.ArrayList;
+
+/**
+ * The journal of the changes made to a strategy since it was last written to
+ * its file.
+ * <p>
+ * The changes are recorded in memory as they are made, and appended to a
+ * sidecar file next to the strategy file (its name followed by
+ * <code>.journal</code>) when the strategy is saved, so a save costs as much
+ * as the changes made, and not as the whole strategy. Reading the strategy
+ * file replays its journal, so the strategy is the same as if it had been
+ * fully written.
+ * <p>
+ * Each line of the journal is a change, like <code>region  P1  -52.5  -34.0
+ * 0.0  34.0</code>, with the numbers in the field coordination as in the .cas
+ * files. The changes of a save are put between a <code>begin</code> and an
+ * <code>end</code> line, and a save cut short (by a crash, for instance) is
+ * ignored as a whole. The first line
+ * holds the size and the modification time of the strategy file the journal
+ * was started on; a journal not matching its file any more is not replayed.
+ */
+class StrategyJournal
+{
+    /*
+     * The changes
+     */
+    private static final String Header         = "journal";
+    private static final String Region         = "region";
+    private static final String RemoveRegion   = "remove";
+    private static final String Partition      = "partition";
+    private static final String RemovePart     = "unpartition";
+    private static final String Priority       = "priority";
+    private static final String MoveUp         = "up";
+    private static final String MoveDown       = "down";
+    private static final String Coefs          = "coefs";
+    private static final String Begin          = "begin";
+    private static final String End            = "end";
+
+    /**
+     * The version of the journal format
+     */
+    private static final int    Version        = 1;
+
+    /**
+     * The journal is compacted, by writing the whole strategy, once it grows
+     * larger than this ratio of the strategy file
+     */
+    private static final double CompactRatio   = 0.5;
+
+    /**
+     * ... but not before it grows larger than this size
+     */
+    private static final long   MinCompactSize = 64 << 10;
+
+    /**
+     * The strategy file the journal belongs to, or null if the changes are
+     * not recorded
+     */
+    private String              fileName       = null;
+
+    /*
+     * The size and the modification time of the strategy file when it was
+     * read or written last
+     */
+    private long                baseSize, baseModified;
+
+    /**
+     * The changes not saved yet
+     */
+    private StringBuilder       sbPending      = new StringBuilder();
+
+    /**
+     * returns the sidecar journal file of a strategy file
+     */
+    public static File getJournalFile(String fileName)
+    {
+        return new File(fileName + "." + Params.JournalFilesExt);
+    }
+
+    /**
+     * Starts recording the changes made to a strategy which is the same as the
+     * one in a file, with its journal.
+     */
+    public void attach(String fileName)
+    {
+        File file = new File(fileName);
+        this.fileName = fileName;
+        baseSize = file.length();
+        baseModified = file.lastModified();
+        sbPending.setLength(0);
+    }
+
+    /**
+     * Stops recording the changes, when the strategy has nothing to do with
+     * its file any more; it must be fully written then.
+     */
+    public void detach()
+    {
+        fileName = null;
+        sbPending.setLength(0);
+    }
+
+    /**
+     * returns true if the changes are recorded for a file, which has not
+     * been changed by anything else since
+     */
+    public boolean isAttachedTo(String fileName)
+    {
+        if (this.fileName == null || !this.fileName.equals(fileName))
+            return false;
+
+        File file = new File(fileName);
+        return file.length() == baseSize && file.lastModified() == baseModified;
+    }
+
+    /**
+     * returns true if there are changes not saved yet
+     */
+    public boolean hasPending()
+    {
+        return sbPending.length() > 0;
+    }
+
+    /**
+     * returns true if the journal of the file has grown so large that the
+     * whole strategy should be written instead
+     */
+    public boolean needsCompaction()
+    {
+        long size = getJournalFile(fileName).length();
+        return size > MinCompactSize && size > CompactRatio * baseSize;
+    }
+
+    /*
+     * Recording the changes. Nothing is recorded while detached.
+     */
+
+    public void addRegion(String regName, Rect4d rc)
+    {
+        if (fileName != null)
+            append(sbPending.append(Region), regName, Util
+                    .FieldRectForFile(rc).toString());
+    }
+
+    public void removeRegion(String regName)
+    {
+        if (fileName != null)
+            append(sbPending.append(RemoveRegion), regName, null);
+    }
+
+    public void addPartition(String regName, int priority)
+    {
+        if (fileName != null)
+            append(sbPending.append(Partition), regName, priority == 0 ? null
+                    : String.valueOf(priority));
+    }
+
+    public void removePartition(String regName)
+    {
+        if (fileName != null)
+            append(sbPending.append(RemovePart), regName, null);
+    }
+
+    public void setPriority(String regName, int priority)
+    {
+        if (fileName != null)
+            append(sbPending.append(Priority), regName, String
+                    .valueOf(priority));
+    }
+
+    public void moveUp(String regName)
+    {
+        if (fileName != null)
+            append(sbPending.append(MoveUp), regName, null);
+    }
+
+    public void moveDown(String regName)
+    {
+        if (fileName != null)
+            append(sbPending.append(MoveDown), regName, null);
+    }
+
+    public void setCoefs(int index, String regName, Coefs4d cs)
+    {
+        if (fileName != null)
+            append(sbPending.append(Coefs).append("  ").append(index + 1),
+                    regName, cs.toString());
+    }
+
+    private void append(StringBuilder sb, String regName, String values)
+    {
+        sb.append("  ").append(regName);
+        if (values != null)
+            sb.append("  ").append(values);
+        sb.append('\n');
+    }
+
+    /**
+     * Appends the changes not saved yet to the journal file, starting it if
+     * needed, and makes sure they reach the disk.
+     */
+    public void save() throws IOException
+    {
+        if (!hasPending())
+            return;
+
+        RandomAccessFile raf = new RandomAccessFile(getJournalFile(fileName),
+                "rw");
+        try
+        {
+            StringBuilder sb = new StringBuilder();
+            long length = raf.length();
+            if (length == 0)
+            {
+                sb.append(Header).append("  ").append(Version).append("  ")
+                        .append(baseSize).append("  ").append(baseModified)
+                        .append('\n');
+            }
+            else
+            {
+                // the last line of a save cut short is left incomplete
+                raf.seek(length - 1);
+                if (raf.read() != '\n')
+                    sb.append('\n');
+            }
+            sb.append(Begin).append('\n').append(sbPending).append(End).append(
+                    '\n');
+
+            raf.seek(length);
+            raf.write(sb.toString().getBytes("UTF-8"));
+            raf.getFD().sync();
+        }
+        finally
+        {
+            raf.close();
+        }
+        sbPending.setLength(0);
+    }
+
+    /**
+     * Deletes the journal of a file, after the whole strategy has been
+     * written to it.
+     */
+    public static void delete(String fileName) throws IOException
+    {
+        File file = getJournalFile(fileName);
+        if (file.exists() && !file.delete())
+            throw new IOException("Cannot delete " + file);
+    }
+
+    /**
+     * Replays the journal of a strategy file, if there is one. The strategy
+     * must have just been read from the file, and must not be recording its
+     * changes.
+     * <p>
+     * Lines that cannot be replayed are skipped and reported in the
+     * diagnostics, as is a journal not matching the file.
+     *
+     * @return false if there is a journal which does not match the file
+     */
+    public static boolean replay(StrategyData sd, String fileName,
+            CASDiagnostics diag) throws IOException
+    {
+        File file = getJournalFile(fileName);
+        if (!file.exists())
+            return true;
+
+        InputStreamReader reader = new InputStreamReader(new FileInputStream(
+                file), "UTF-8");
+        try
+        {
+            CASScanner scanner = new CASScanner(reader);
+            if (!scanner.nextLine() || !checkHeader(scanner, fileName))
+            {
+                diag.add(CASDiagnostics.Kind.StaleJournal, 1, 1, file
+                        .getPath());
+                return false;
+            }
+
+            // the changes of a save, and the problems in them, taken when its
+            // end is reached; a save cut short is dropped at the next begin
+            ArrayList<Change> listChanges = new ArrayList<Change>();
+            CASDiagnostics saveDiag = new CASDiagnostics();
+            while (scanner.nextLine())
+            {
+                scanner.skipWhiteSpace();
+                if (scanner.atEnd())
+                    continue;
+
+                String op = scanner.readToken();
+                if (op.equals(Begin) || op.equals(End))
+                {
+                    if (op.equals(End))
+                    {
+                        for (int i = 0; i < listChanges.size(); ++i)
+                            listChanges.get(i).apply(sd);
+                        diag.addAll(saveDiag);
+                    }
+                    listChanges.clear();
+                    saveDiag = new CASDiagnostics();
+                    continue;
+                }
+
+                Change change = Change.parse(op, scanner);
+                if (change != null)
+                    listChanges.add(change);
+                else
+                    saveDiag.add(CASDiagnostics.Kind.BadJournalLine, scanner
+                            .getLineNumber(), scanner.getColumn(), scanner
+                            .getLineText());
+            }
+        }
+        finally
+        {
+            reader.close();
+        }
+        return true;
+    }
+
+    private static boolean checkHeader(CASScanner scanner, String fileName)
+    {
+        scanner.skipWhiteSpace();
+        if (!scanner.readToken().equals(Header))
+            return false;
+
+        double[] values = new double[3];
+        for (int i = 0; i < values.length; ++i)
+        {
+            scanner.skipWhiteSpace();
+            if (!scanner.readNumber())
+                return false;
+            values[i] = scanner.number;
+        }
+
+        File file = new File(fileName);
+        return values[0] == Version && values[1] == file.length()
+                && values[2] == file.lastModified();
+    }
+
+    /**
+     * A change read from a journal
+     */
+    private static class Change
+    {
+        String   op;
+        String   regName;
+        int      index;
+        double[] values;
+
+        /**
+         * Reads the rest of a line of a journal
+         *
+         * @return null if the line is not valid
+         */
+        static Change parse(String op, CASScanner scanner)
+        {
+            Change c = new Change();
+            c.op = op;
+            int count = 0;
+            if (op.equals(Coefs))
+            {
+                scanner.skipWhiteSpace();
+                if (!scanner.readNumber())
+                    return null;
+                c.index = (int) scanner.number - 1;
+                if (c.index != scanner.number - 1 || c.index < 0
+                        || c.index > 10)
+                    return null;
+                count = 4;
+            }
+            else if (op.equals(Region))
+                count = 4;
+            else if (op.equals(Priority))
+                count = 1;
+            else if (!op.equals(RemoveRegion) && !op.equals(Partition)
+                    && !op.equals(RemovePart) && !op.equals(MoveUp)
+                    && !op.equals(MoveDown))
+                return null;
+
+            scanner.skipWhiteSpace();
+            c.regName = scanner.readToken();
+            if (c.regName.length() == 0)
+                return null;
+
+            // the priority of a partition is given unless it is the default
+            scanner.skipWhiteSpace();
+            if (op.equals(Partition) && !scanner.atEnd())
+                count = 1;
+
+            c.values = new double[count];
+            for (int i = 0; i < count; ++i)
+            {
+                scanner.skipWhiteSpace();
+                if (!scanner.readNumber())
+                    return null;
+                c.values[i] = scanner.number;
+            }
+
+            scanner.skipWhiteSpace();
+            if (!scanner.atEnd())
+                return null;
+            if ((op.equals(Priority) || op.equals(Partition)) && count == 1
+                    && c.values[0] != (int) c.values[0])
+                return null;
+            return c;
+        }
+
+        void apply(StrategyData sd)
+        {
+            double[] v = values;
+            if (op.equals(Region))
+                sd.addRegion(regName, Util.GlobalRect(new Rect4d(v[0], v[1],
+                        v[2], v[3])));
+            else if (op.equals(RemoveRegion))
+                sd.removeRegion(regName);
+            else if (op.equals(Partition))
+                sd.addRegToPartition(regName, v.length > 0 ? (int) v[0] : 0);
+            else if (op.equals(RemovePart))
+                sd.removeRegFromPartition(regName);
+            else if (op.equals(Priority))
+                sd.setPartitionPriority(regName, (int) v[0]);
+            else if (op.equals(MoveUp))
+                sd.movePartitionUp(regName);
+            else if (op.equals(MoveDown))
+                sd.movePartitionDown(regName);
+            else if (op.equals(Coefs))
+                sd.setCoefForPlayer(index, regName, new Coefs4d(v[0], v[1],
+                        v[2], v[3]));
+        }
+    }
+}
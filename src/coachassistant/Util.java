@@ -24,8 +24,14 @@ import java.awt.FontMetrics;
 import java.awt.event.ActionEvent;
 import java.awt.event.ActionListener;
 import java.io.BufferedWriter;
+import java.io.File;
 import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
 import java.util.Iterator;
+import java.util.regex.Pattern;
 
 import javax.swing.JButton;
 import javax.swing.JCheckBox;
@@ -45,6 +51,13 @@ import javax.swing.JTextField;
  */
 public class Util
 {
+    /**
+     * Powers of ten used for rounding, so the common cases need not call
+     * <code>Math.pow</code>.
+     */
+    private static final double[] POW10 = { 1e0, 1e1, 1e2, 1e3, 1e4, 1e5,
+            1e6, 1e7, 1e8, 1e9, 1e10, 1e11, 1e12, 1e13, 1e14, 1e15, 1e16, 1e17 };
+
     /**
      * returns the converted x-coordination specified by the argument from
      * system GUI to the field coordination.
@@ -149,6 +162,68 @@ public class Util
                 GlobalY(r.y2));
     }
 
+    /**
+     * returns a rectangle in the field coordination to be written to a file.
+     * <p>
+     * The conversion between the two coordinations is not exact, so
+     * <code>FieldRect</code> may return a coordinate a little off the one
+     * read from a file. Here each coordinate is the number of the fewest
+     * decimal digits which <code>GlobalRect</code> converts back to exactly
+     * the same global coordinate, so the numbers read from a file are
+     * written back as they were. For the other coordinates, like those drawn
+     * on the pitch, the doubles next to the converted one are tried as well.
+     * Some global coordinates are not the conversion of any field one, and
+     * cannot be written exactly; <code>CASBinary</code> files keep them.
+     * 
+     * @param r
+     *            a rectangle in the system GUI coordination
+     */
+    public static Rect4d FieldRectForFile(Rect4d r)
+    {
+        return new Rect4d(shortestFieldCoord(r.x1, true), shortestFieldCoord(
+                r.y1, false), shortestFieldCoord(r.x2, true),
+                shortestFieldCoord(r.y2, false));
+    }
+
+    private static double shortestFieldCoord(double d, boolean x)
+    {
+        double f = x ? FieldX(d) : FieldY(d);
+        for (int n = 0; n < POW10.length; ++n)
+        {
+            // adding 0.0 turns -0.0 into 0.0
+            double r = Math.rint(f * POW10[n]) / POW10[n] + 0.0;
+            if ((x ? GlobalX(r) : GlobalY(r)) == d)
+                return r;
+        }
+
+        // the doubles next to f, nearest first
+        double up = f, down = f;
+        for (int i = 0; i < 8; ++i)
+        {
+            up = nextUp(up);
+            down = -nextUp(-down);
+            if ((x ? GlobalX(up) : GlobalY(up)) == d)
+                return up;
+            if ((x ? GlobalX(down) : GlobalY(down)) == d)
+                return down;
+        }
+        return f;
+    }
+
+    /**
+     * returns the double next to d in the direction of the positive infinity,
+     * as <code>Math.nextUp</code> of Java 6 does
+     */
+    private static double nextUp(double d)
+    {
+        if (Double.isNaN(d) || d == Double.POSITIVE_INFINITY)
+            return d;
+        if (d == 0.0)
+            return Double.MIN_VALUE;
+        long bits = Double.doubleToLongBits(d);
+        return Double.longBitsToDouble(d > 0.0 ? bits + 1 : bits - 1);
+    }
+
     /**
      * returns the rounded result of the argument to the n digits after the
      * decimal point.
@@ -160,9 +235,10 @@ public class Util
      */
     public static double roundTo(double d, int n)
     {
-        d *= Math.pow(10, n);
+        double p = (0 <= n && n < POW10.length) ? POW10[n] : Math.pow(10, n);
+        d *= p;
         d = Math.round(d);
-        d /= Math.pow(10, n);
+        d /= p;
         return d;
     }
 
@@ -219,6 +295,149 @@ public class Util
             return name.substring(0, index);
     }
 
+    /**
+     * Adds the files specified by a command-line argument to a list. The
+     * argument may be the name of a file, a directory (its files with one of
+     * the given extensions are added), or a file name pattern containing * and
+     * ? wildcards.
+     * 
+     * @param arg
+     *            the command-line argument
+     * @param exts
+     *            the extensions of the files to be taken from directories, in
+     *            lower case and without the leading dot
+     * @param listFiles
+     *            the list to add the files to
+     */
+    public static void addFiles(String arg, String[] exts,
+            ArrayList<File> listFiles)
+    {
+        File f = new File(arg);
+        File dir = f;
+        Pattern pattern = null;
+        if (!f.isDirectory())
+        {
+            if (f.getName().indexOf('*') < 0 && f.getName().indexOf('?') < 0)
+            {
+                listFiles.add(f);
+                return;
+            }
+
+            dir = f.getParentFile();
+            if (dir == null)
+                dir = new File(".");
+            pattern = globToPattern(f.getName());
+        }
+
+        File[] files = dir.listFiles();
+        if (files == null)
+            return;
+        Arrays.sort(files);
+        for (int i = 0; i < files.length; ++i)
+        {
+            if (!files[i].isFile())
+                continue;
+
+            String name = files[i].getName();
+            if (pattern != null)
+            {
+                if (pattern.matcher(name).matches())
+                    listFiles.add(files[i]);
+                continue;
+            }
+
+            name = name.toLowerCase();
+            for (int j = 0; j < exts.length; ++j)
+            {
+                if (name.endsWith("." + exts[j]))
+                {
+                    listFiles.add(files[i]);
+                    break;
+                }
+            }
+        }
+    }
+
+    private static Pattern globToPattern(String glob)
+    {
+        StringBuilder sb = new StringBuilder();
+        for (int i = 0; i < glob.length(); ++i)
+        {
+            char ch = glob.charAt(i);
+            if (ch == '*')
+                sb.append(".*");
+            else if (ch == '?')
+                sb.append('.');
+            else
+                sb.append(Pattern.quote(String.valueOf(ch)));
+        }
+        return Pattern.compile(sb.toString());
+    }
+
+    /**
+     * Checks that converting a list of files writes each of them to a file of
+     * its own, and does not overwrite any of them before it is read.
+     * 
+     * @param listIn
+     *            the files to be converted
+     * @param listOut
+     *            the file each of them is written to, in the same order
+     * @return a message about the first conflict found, or null if there is
+     *         none
+     */
+    public static String findOutputConflict(ArrayList<File> listIn,
+            ArrayList<File> listOut)
+    {
+        HashSet<File> setIn = new HashSet<File>();
+        for (int i = 0; i < listIn.size(); ++i)
+        {
+            if (!setIn.add(canonicalFile(listIn.get(i))))
+                return listIn.get(i) + " is given more than once";
+        }
+
+        HashMap<File, File> mapOut2In = new HashMap<File, File>();
+        for (int i = 0; i < listOut.size(); ++i)
+        {
+            File out = canonicalFile(listOut.get(i));
+            if (setIn.contains(out))
+                return listIn.get(i) + " would overwrite " + listOut.get(i);
+
+            File other = mapOut2In.put(out, listIn.get(i));
+            if (other != null)
+                return other + " and " + listIn.get(i)
+                        + " would both be written to " + listOut.get(i);
+        }
+        return null;
+    }
+
+    /**
+     * Creates the directory the converted files are written to, along with
+     * its missing parents.
+     * 
+     * @return a message about the problem, or null if the directory exists
+     *         once this returns
+     */
+    public static String makeOutputDir(File dir)
+    {
+        if (dir.isDirectory() || dir.mkdirs())
+            return null;
+        if (dir.exists())
+            return dir + " is not a directory";
+        return "cannot create the directory " + dir;
+    }
+
+    private static File canonicalFile(File f)
+    {
+        try
+        {
+            return f.getCanonicalFile();
+        }
+        catch (IOException ex)
+        {
+            return f.getAbsoluteFile();
+        }
+    }
+
     /**
      * This function writes a line of string and appends a new-line character to
      * form a UNIX like text file.
@@ -232,7 +451,8 @@ public class Util
     public static void writeLine(BufferedWriter br, String str)
             throws IOException
     {
-        br.write(str + "\n");
+        br.write(str);
+        br.write('\n');
     }
 
     /**
@@ -0,0 +1,85 @@
+/*
+ This file is part of Coach Assistant
+ Copyright (C) 2004-2006 Sina Iravanian  <sina_iravanian@yahoo.com>
+
+ This program is free software; you can redistribute it and/or modify
+ it under the terms of the GNU General Public License as published by
+ the Free Software Foundation; version 2 of the License.
+
+ This program is distributed in the hope that it will be useful,
+ but WITHOUT ANY WARRANTY; without even the implied warranty of
+ MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ GNU General Public License for more details.
+
+ You should have received a copy of the GNU General Public License
+ along with this program; if not, write to the Free Software
+ Foundation, Inc., 675 Mass Ave, Cambridge, MA 02139, USA.
+ */
+
+package coachassistant;
+
+import java.awt.Component;
+import java.awt.Graphics;
+import java.awt.GraphicsConfiguration;
+import java.awt.Rectangle;
+import java.awt.image.VolatileImage;
+
+/**
+ * A pitch buffer on a <code>VolatileImage</code>, which may live in the video
+ * memory, so drawing it on the screen is accelerated.
+ */
+class VolatilePitchBuffer implements IPitchBuffer
+{
+    private VolatileImage image = null;
+
+    public boolean validate(Component owner, int width, int height)
+    {
+        GraphicsConfiguration gc = owner.getGraphicsConfiguration();
+        if (image != null && width <= image.getWidth()
+                && height <= image.getHeight())
+        {
+            int valid = image.validate(gc);
+            if (valid == VolatileImage.IMAGE_OK)
+                return false;
+            if (valid == VolatileImage.IMAGE_RESTORED)
+                return true;
+            // IMAGE_INCOMPATIBLE, e.g. moved to another screen
+        }
+
+        int w = width, h = height;
+        if (image != null)
+        {
+            w = Math.max(w, image.getWidth());
+            h = Math.max(h, image.getHeight());
+        }
+
+        dispose();
+        image = gc != null ? gc.createCompatibleVolatileImage(w, h) : owner
+                .createVolatileImage(w, h);
+        return true;
+    }
+
+    public Graphics createGraphics()
+    {
+        return image.createGraphics();
+    }
+
+    public void show(Graphics g, Rectangle area)
+    {
+        int x2 = area.x + area.width, y2 = area.y + area.height;
+        g.drawImage(image, area.x, area.y, x2, y2, area.x, area.y, x2, y2,
+                null);
+    }
+
+    public boolean contentsLost()
+    {
+        return image.contentsLost();
+    }
+
+    public void dispose()
+    {
+        if (image != null)
+            image.flush();
+        image = null;
+    }
+}